@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.discord.chipsview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link ChipLabel#truncate} for labels that fit, that are cut off, and that are cut off next
+ * to a surrogate pair.
+ */
+@State(Scope.Thread)
+public class ChipLabelBenchmark {
+
+    private String mShort = "Anderson Garron";
+    private String mLong = "Anderson Garron from the Android team, Doodle AG";
+    private String mEmoji = "Anderson Garron from the Andr\ud83d\ude00\ud83d\ude00 team";
+
+    @Benchmark
+    public String fits() {
+        return ChipLabel.truncate(mShort);
+    }
+
+    @Benchmark
+    public String cutOff() {
+        return ChipLabel.truncate(mLong);
+    }
+
+    @Benchmark
+    public String cutOffAtSurrogate() {
+        return ChipLabel.truncate(mEmoji);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.discord.chipsview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Row packing as done by {@link ChipsFlowLayout#onChipsChanged}: a full reflow, as after a
+ * width change, and the incremental reflows after adding or removing one chip.
+ */
+@State(Scope.Thread)
+public class ChipLineBreakerBenchmark {
+
+    // a 1080px wide phone at xxhdpi
+    private static final int AVAILABLE_WIDTH = 1032;
+    private static final int CHIP_SPACING = 12;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int chipCount;
+
+    private ChipLineBreaker mLineBreaker;
+    private int mExtraWidth;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mLineBreaker = new ChipLineBreaker(CHIP_SPACING);
+        mLineBreaker.setAvailableWidth(AVAILABLE_WIDTH);
+        mLineBreaker.splice(0, 0, chipCount);
+        for (int i = 0; i < chipCount; i++) {
+            mLineBreaker.setWidth(i, chipWidth(random));
+        }
+        mLineBreaker.reflow();
+        mExtraWidth = chipWidth(random);
+    }
+
+    /**
+     * @return width of a chip with an avatar and a name: name lengths are log-normal around
+     * 11 characters and cut off at the label limit
+     */
+    static int chipWidth(Random random) {
+        int length = (int) Math.round(Math.exp(2.4 + 0.45 * random.nextGaussian()));
+        length = Math.max(2, Math.min(length, ChipLabel.MAX_LENGTH + 3));
+        return 132 + length * 22;
+    }
+
+    @Benchmark
+    public int fullReflow() {
+        mLineBreaker.invalidate();
+        mLineBreaker.reflow();
+        return mLineBreaker.getLineCount();
+    }
+
+    @Benchmark
+    public int appendAndRemoveLast() {
+        int last = mLineBreaker.size();
+        mLineBreaker.splice(last, 0, 1);
+        mLineBreaker.setWidth(last, mExtraWidth);
+        mLineBreaker.reflow();
+        int lines = mLineBreaker.getLineCount();
+        mLineBreaker.splice(last, 1, 0);
+        mLineBreaker.reflow();
+        return lines;
+    }
+
+    @Benchmark
+    public int insertAndRemoveFirst() {
+        mLineBreaker.splice(0, 0, 1);
+        mLineBreaker.setWidth(0, mExtraWidth);
+        mLineBreaker.reflow();
+        int lines = mLineBreaker.getLineCount();
+        mLineBreaker.splice(0, 1, 0);
+        mLineBreaker.reflow();
+        return lines;
+    }
+}
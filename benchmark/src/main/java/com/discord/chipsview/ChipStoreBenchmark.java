@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.discord.chipsview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Operations ChipsView does on its chips: lookup by key, position of a key, insert and remove
+ * in the middle, append and remove at the tail, and pruning to a set of keys.
+ */
+@State(Scope.Thread)
+public class ChipStoreBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int chipCount;
+
+    private ChipStore<Integer, String> mStore;
+    private Integer[] mKeys;
+    private Random mRandom;
+
+    @Setup
+    public void setUp() {
+        mStore = createStore(chipCount);
+        mKeys = new Integer[chipCount];
+        for (int i = 0; i < chipCount; i++) {
+            mKeys[i] = i;
+        }
+        mRandom = new Random(42);
+    }
+
+    private static ChipStore<Integer, String> createStore(int count) {
+        ChipStore<Integer, String> store = new ChipStore<>();
+        for (int i = 0; i < count; i++) {
+            store.put(i, "chip " + i);
+        }
+        return store;
+    }
+
+    @Benchmark
+    public String get() {
+        return mStore.get(mKeys[mRandom.nextInt(chipCount)]);
+    }
+
+    @Benchmark
+    public int indexOf() {
+        return mStore.indexOf(mKeys[mRandom.nextInt(chipCount)]);
+    }
+
+    @Benchmark
+    public String getAt() {
+        return mStore.getAt(mRandom.nextInt(chipCount));
+    }
+
+    @Benchmark
+    public String insertAndRemoveMiddle() {
+        mStore.add(chipCount / 2, -1, "new chip");
+        return mStore.remove(-1);
+    }
+
+    @Benchmark
+    public String appendAndRemoveTail() {
+        mStore.put(-1, "new chip");
+        return mStore.removeAt(chipCount);
+    }
+
+    @Benchmark
+    public int prune(PruneState state) {
+        Iterator<String> iter = state.store.iterator();
+        int index = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            if (!state.keep.contains(index++)) {
+                iter.remove();
+            }
+        }
+        return state.store.size();
+    }
+
+    /**
+     * prune() removes from the store, it gets a fresh one for each call. In its own state so
+     * the other benchmarks don't pay for that.
+     */
+    @State(Scope.Thread)
+    public static class PruneState {
+
+        @Param({"100", "1000", "10000"})
+        public int chipCount;
+
+        ChipStore<Integer, String> store;
+        Set<Integer> keep;
+
+        @Setup
+        public void setUp() {
+            // keep 90% of the chips
+            keep = new HashSet<>();
+            Random random = new Random(7);
+            for (int i = 0; i < chipCount; i++) {
+                if (random.nextInt(10) != 0) {
+                    keep.add(i);
+                }
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpStore() {
+            store = createStore(chipCount);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.discord.chipsview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link ChipsDiff#calculate} as run by ChipsView.setChips(): the target drops 5% of the
+ * current keys, adds 5% new ones and moves 1%.
+ */
+@State(Scope.Thread)
+public class ChipsDiffBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int chipCount;
+
+    private List<Integer> mCurrent;
+    private List<Integer> mTarget;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mCurrent = new ArrayList<>(chipCount);
+        for (int i = 0; i < chipCount; i++) {
+            mCurrent.add(i);
+        }
+
+        mTarget = new ArrayList<>(chipCount);
+        for (Integer key : mCurrent) {
+            if (random.nextInt(20) != 0) {
+                mTarget.add(key);
+            }
+        }
+        for (int i = 0; i < chipCount / 20; i++) {
+            mTarget.add(random.nextInt(mTarget.size() + 1), chipCount + i);
+        }
+        for (int i = 0; i < Math.max(1, chipCount / 100); i++) {
+            Collections.swap(mTarget, random.nextInt(mTarget.size()), random.nextInt(mTarget.size()));
+        }
+    }
+
+    @Benchmark
+    public ChipsDiff<Integer> calculate() {
+        return ChipsDiff.calculate(mCurrent, mTarget);
+    }
+
+    @Benchmark
+    public ChipsDiff<Integer> calculateUnchanged() {
+        return ChipsDiff.calculate(mCurrent, mCurrent);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import com.facebook.common.executors.UiThreadImmediateExecutorService;
+import com.facebook.datasource.BaseDataSubscriber;
+import com.facebook.datasource.DataSource;
+import com.facebook.drawee.backends.pipeline.Fresco;
+import com.facebook.imagepipeline.core.ImagePipeline;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the avatars of the chips near the viewport into the bitmap cache, so they are ready
+ * when the chips are scrolled into view instead of filling in one by one.
+ *
+ * Uses the same requests as {@link ImageUtil#setImage(android.widget.ImageView, String, int)},
+ * at most {@link #MAX_RUNNING} at a time, the others wait in chip order. A chip's prefetch is
+ * cancelled when it is removed or leaves the window. Main thread only.
+ */
+class AvatarPrefetcher {
+
+    private static final int MAX_RUNNING = 4;
+
+    private final int mImageSize;
+    private final Map<Object, ImageRequest> mPending = new LinkedHashMap<>();
+    private final Map<Object, DataSource<Void>> mRunning = new HashMap<>();
+    private final List<Chip> mWindow = new ArrayList<>();
+
+    AvatarPrefetcher(int imageSize) {
+        mImageSize = imageSize;
+    }
+
+    /**
+     * Prefetches the avatars of {@code chips} and cancels those of chips that are no longer in it.
+     */
+    public void setWindow(List<? extends Chip> chips) {
+        if (isWindow(chips)) {
+            return;
+        }
+        mWindow.clear();
+        mWindow.addAll(chips);
+
+        Set<Object> keys = new HashSet<>();
+        for (Chip chip : chips) {
+            keys.add(chip.getKey());
+        }
+        mPending.keySet().retainAll(keys);
+        Iterator<Map.Entry<Object, DataSource<Void>>> iter = mRunning.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Object, DataSource<Void>> entry = iter.next();
+            if (!keys.contains(entry.getKey())) {
+                entry.getValue().close();
+                iter.remove();
+            }
+        }
+
+        for (Chip chip : chips) {
+            if (chip.getPhotoUri() != null) {
+                prefetch(chip.getKey(), chip.getPhotoUri().toString());
+            }
+        }
+        startNext();
+    }
+
+    private boolean isWindow(List<? extends Chip> chips) {
+        if (chips.size() != mWindow.size()) {
+            return false;
+        }
+        // chips are replaced when their avatar changes, so the same chips need no new requests
+        for (int i = 0; i < chips.size(); i++) {
+            if (chips.get(i) != mWindow.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void prefetch(Object key, String url) {
+        if (mPending.containsKey(key) || mRunning.containsKey(key)) {
+            return;
+        }
+
+        ImageRequest request = ImageUtil.getCachedImageRequest(url, mImageSize, mImageSize);
+        if (Fresco.getImagePipeline().isInBitmapMemoryCache(request)) {
+            return;
+        }
+        mPending.put(key, request);
+        startNext();
+    }
+
+    public void cancel(Object key) {
+        if (mPending.remove(key) != null) {
+            return;
+        }
+        DataSource<Void> dataSource = mRunning.remove(key);
+        if (dataSource != null) {
+            dataSource.close();
+            startNext();
+        }
+    }
+
+    public void cancelAll() {
+        mWindow.clear();
+        mPending.clear();
+        for (DataSource<Void> dataSource : mRunning.values()) {
+            dataSource.close();
+        }
+        mRunning.clear();
+    }
+
+    private void startNext() {
+        ImagePipeline pipeline = Fresco.getImagePipeline();
+        while (mRunning.size() < MAX_RUNNING && !mPending.isEmpty()) {
+            // a prefetch that completes right away starts the next one from its callback
+            Iterator<Map.Entry<Object, ImageRequest>> iter = mPending.entrySet().iterator();
+            Map.Entry<Object, ImageRequest> entry = iter.next();
+            iter.remove();
+
+            final Object key = entry.getKey();
+            final DataSource<Void> dataSource = pipeline.prefetchToBitmapCache(entry.getValue(), null);
+            mRunning.put(key, dataSource);
+            dataSource.subscribe(new BaseDataSubscriber<Void>() {
+                @Override
+                protected void onNewResultImpl(DataSource<Void> source) {
+                    if (source.isFinished()) {
+                        onFinished(key, source);
+                    }
+                }
+
+                @Override
+                protected void onFailureImpl(DataSource<Void> source) {
+                    onFinished(key, source);
+                }
+            }, UiThreadImmediateExecutorService.getInstance());
+        }
+    }
+
+    private void onFinished(Object key, DataSource<Void> dataSource) {
+        // a cancelled prefetch may already have been replaced by a new one for the same key
+        if (mRunning.get(key) == dataSource) {
+            mRunning.remove(key);
+            startNext();
+        }
+    }
+}
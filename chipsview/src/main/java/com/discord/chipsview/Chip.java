@@ -16,21 +16,28 @@
 
 package com.discord.chipsview;
 
+import android.content.res.Resources;
 import android.graphics.PorterDuff;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.support.v4.content.res.ResourcesCompat;
+import android.support.v4.graphics.drawable.DrawableCompat;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 public class Chip<K, T extends ChipsView.DataContract> implements View.OnClickListener {
 
-    private static final int MAX_LABEL_LENGTH = 30;
+    // parts of the view that no longer match the chip's state
+    private static final int DIRTY_LABEL = 1;
+    private static final int DIRTY_SELECTION = 1 << 1;
+    private static final int DIRTY_PHOTO = 1 << 2;
+    private static final int DIRTY_ALL = DIRTY_LABEL | DIRTY_SELECTION | DIRTY_PHOTO;
     private final ChipsView<K, T> container;
 
-    private String mLabel;
+    private final String mLabel;
     private final Uri mPhotoUri;
     private final K key;
     private final T data;
@@ -42,82 +49,153 @@ public class Chip<K, T extends ChipsView.DataContract> implements View.OnClickLi
     private ImageView mImageView;
 
     private boolean mIsSelected = false;
+    private int mDirtyFlags = DIRTY_ALL;
+
+    // width cache, valid as long as the label and the measurer it was computed with don't change
+    private ChipMeasurer mMeasurer;
+    private int mWidth;
 
     private ChipParams params;
 
     public Chip(String label, Uri photoUri, K key, T data, boolean isIndelible, ChipParams params, ChipsView<K, T> container) {
-        this.mLabel = label;
+        this(prepareLabel(label, data), photoUri, key, data, isIndelible, params, container, null, 0);
+    }
+
+    /**
+     * For a label that was already made with {@link #prepareLabel(String, ChipsView.DataContract)},
+     * possibly on another thread. If {@code measurer} is not null, {@code width} is the label's width with it.
+     */
+    Chip(String preparedLabel, Uri photoUri, K key, T data, boolean isIndelible, ChipParams params, ChipsView<K, T> container,
+         ChipMeasurer measurer, int width) {
+        this.mLabel = preparedLabel;
         this.mPhotoUri = photoUri;
         this.key = key;
         this.data = data;
         this.mIsIndelible = isIndelible;
         this.params = params;
         this.container = container;
+        this.mMeasurer = measurer;
+        this.mWidth = width;
+    }
 
-        if (mLabel == null) {
-            mLabel = data.getDisplayString();
-        }
-
-        if (mLabel.length() > MAX_LABEL_LENGTH) {
-            mLabel = mLabel.substring(0, MAX_LABEL_LENGTH) + "...";
-        }
+    /**
+     * @return the label shown for a chip: {@code label}, or the data's display string if it is null,
+     * cut off at {@link ChipLabel#MAX_LENGTH}. Doesn't touch views, safe to call from any thread.
+     */
+    static String prepareLabel(String label, ChipsView.DataContract data) {
+        return ChipLabel.truncate(label != null ? label : data.getDisplayString());
     }
 
     public View getView() {
         if (mView == null) {
-            mView = (RelativeLayout) View.inflate(container.getContext(), params.chipLayout, null);
-            LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, (int) (params.chipHeight * params.density));
-            layoutParams.setMargins(layoutParams.leftMargin, layoutParams.topMargin, (int)(4 * params.density), layoutParams.bottomMargin);
-            mView.setLayoutParams(layoutParams);
+            mView = (RelativeLayout) ChipViewPool.acquire(container.getContext(), params.chipLayout, container.getMetrics());
+            mView.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, (int) (params.chipHeight * params.density)));
             mImageView = (ImageView) mView.findViewById(R.id.chip_image);
             mTextView = (TextView) mView.findViewById(R.id.chip_text);
 
-            // set initial res & attrs
-            mView.setBackgroundResource(params.chipsBgRes);
-            mView.post(new Runnable() {
-                @Override
-                public void run() {
-                    mView.getBackground().setColorFilter(params.chipsBgColor, PorterDuff.Mode.SRC_ATOP);
-                }
-            });
-
+            // backgrounds and colors are set with the selection state
             if (mImageView != null) {
-                mImageView.setBackgroundResource(R.drawable.drawable_chip_circle);
                 mImageView.setOnClickListener(this);
             }
-
-            mTextView.setTextColor(params.chipsTextColor);
             mView.setOnClickListener(this);
+            mDirtyFlags = DIRTY_ALL;
         }
-        updateViews();
+        bindView();
         return mView;
     }
 
-    private void updateViews() {
-        mTextView.setText(mLabel);
+    /**
+     * Updates the parts of the view that changed since it was last bound, if there is a view.
+     */
+    void bindView() {
+        if (mView != null && mDirtyFlags != 0) {
+            updateViews(mDirtyFlags);
+            mDirtyFlags = 0;
+        }
+    }
 
-        if (mPhotoUri != null && mImageView != null) {
-            ImageUtil.setImage(mImageView, mPhotoUri.toString(), mImageView.getResources().getDimensionPixelSize(R.dimen.image_size));
+    /**
+     * Returns the view to the {@link ChipViewPool}, the next {@link #getView()} acquires and binds one again.
+     */
+    void releaseView() {
+        if (mView == null) {
+            return;
         }
 
-        if (isSelected()) {
-            mView.getBackground().setColorFilter(params.chipsBgColorClicked, PorterDuff.Mode.SRC_ATOP);
-            mTextView.setTextColor(params.chipsTextColorClicked);
+        mView.setOnClickListener(null);
+        if (mImageView != null) {
+            mImageView.setOnClickListener(null);
+            ImageUtil.setImage(mImageView, null, 0);
+        }
+        ChipViewPool.release(params.chipLayout, mView);
 
-            if (mImageView != null) {
-                mImageView.getBackground().setColorFilter(params.chipsColorClicked, PorterDuff.Mode.SRC_ATOP);
-                mImageView.setImageResource(params.chipsDeleteResId);
+        mView = null;
+        mTextView = null;
+        mImageView = null;
+    }
+
+    /**
+     * @return width of the chip without its right spacing, computed from the label
+     */
+    public int getWidth(ChipMeasurer measurer) {
+        if (mMeasurer != measurer) {
+            ChipsMetrics metrics = container.getMetrics();
+            long start = metrics != null ? metrics.begin(ChipsMetrics.MEASURE) : 0;
+            mWidth = measurer.measure(mLabel);
+            mMeasurer = measurer;
+            if (metrics != null) {
+                metrics.end(ChipsMetrics.MEASURE, start);
             }
-        } else {
-            mView.getBackground().setColorFilter(params.chipsBgColor, PorterDuff.Mode.SRC_ATOP);
-            mTextView.setTextColor(params.chipsTextColor);
+        }
+        return mWidth;
+    }
 
-            if (mImageView != null) {
-                mImageView.getBackground().setColorFilter(params.chipsColor, PorterDuff.Mode.SRC_ATOP);
+    /**
+     * @return the cached width if it was computed with {@code measurer}, -1 otherwise
+     */
+    int getCachedWidth(ChipMeasurer measurer) {
+        return mMeasurer == measurer ? mWidth : -1;
+    }
+
+    private void updateViews(int dirtyFlags) {
+        if ((dirtyFlags & DIRTY_LABEL) != 0) {
+            mTextView.setText(mLabel);
+        }
+
+        if ((dirtyFlags & DIRTY_PHOTO) != 0 && mImageView != null) {
+            String photoUrl = mPhotoUri != null ? mPhotoUri.toString() : null;
+            ChipsMetrics metrics = container.getMetrics();
+            long start = metrics != null ? metrics.begin(ChipsMetrics.IMAGE_BIND) : 0;
+            ImageUtil.setImage(mImageView, photoUrl, mImageView.getResources().getDimensionPixelSize(R.dimen.image_size));
+            if (metrics != null) {
+                metrics.end(ChipsMetrics.IMAGE_BIND, start);
+            }
+        }
+
+        // binding the photo replaces the delete icon of a selected chip
+        if ((dirtyFlags & (DIRTY_SELECTION | DIRTY_PHOTO)) == 0) {
+            return;
+        }
+
+        // the drawables come tinted from the shared style, binding only swaps them
+        boolean selected = isSelected();
+        Resources res = mView.getResources();
+        mView.setBackground(params.newBackground(res, selected));
+        mTextView.setTextColor(selected ? params.chipsTextColorClicked : params.chipsTextColor);
+
+        if (mImageView != null) {
+            mImageView.setBackground(params.newImageBackground(res, selected));
+            if (selected) {
+                mImageView.setImageDrawable(params.newDeleteDrawable(res));
             }
         }
     }
 
+    private void invalidateView(int dirtyFlags) {
+        mDirtyFlags |= dirtyFlags;
+        container.onChipDirty(this);
+    }
+
     @Override
     public void onClick(View v) {
         container.clearEditTextFocus();
@@ -129,10 +207,40 @@ public class Chip<K, T extends ChipsView.DataContract> implements View.OnClickLi
     }
 
     public void setSelected(boolean isSelected) {
-        if (mIsIndelible) {
+        if (mIsIndelible || mIsSelected == isSelected) {
             return;
         }
         this.mIsSelected = isSelected;
+
+        // the delete icon replaced the photo, bring it back
+        invalidateView(isSelected ? DIRTY_SELECTION : DIRTY_SELECTION | DIRTY_PHOTO);
+    }
+
+    public String getLabel() {
+        return mLabel;
+    }
+
+    ChipParams getParams() {
+        return params;
+    }
+
+    boolean isIndelible() {
+        return mIsIndelible;
+    }
+
+    Uri getPhotoUri() {
+        return mPhotoUri;
+    }
+
+    /**
+     * @return whether the chip shows {@code preparedLabel} and {@code photoUri} for {@code data}
+     * and has the same indelible flag. Safe to call from any thread.
+     */
+    boolean hasContent(String preparedLabel, Uri photoUri, T data, boolean isIndelible) {
+        return mLabel.equals(preparedLabel)
+            && (mPhotoUri == null ? photoUri == null : mPhotoUri.equals(photoUri))
+            && this.data.equals(data)
+            && mIsIndelible == isIndelible;
     }
 
     public K getKey() {
@@ -164,6 +272,11 @@ public class Chip<K, T extends ChipsView.DataContract> implements View.OnClickLi
             ;
     }
 
+    /**
+     * Chip style, created once per ChipsView and shared by all its chips. The drawables are
+     * loaded, mutated and tinted on first use, chip views get new instances of their shared
+     * constant states.
+     */
     public static class ChipParams {
         public final int chipsBgColorClicked;
         public final float density;
@@ -178,6 +291,13 @@ public class Chip<K, T extends ChipsView.DataContract> implements View.OnClickLi
         public final int chipHeight;
         public final int chipLayout;
 
+        private Drawable.ConstantState mBackground;
+        private Drawable.ConstantState mBackgroundClicked;
+        private Drawable.ConstantState mImageBackground;
+        private Drawable.ConstantState mImageBackgroundClicked;
+        private Drawable.ConstantState mDelete;
+        private boolean mDrawablesLoaded;
+
         public ChipParams(int chipsBgColorClicked, float density, int chipsBgRes, int chipsBgColor, int chipsTextColor, int chipsPlaceholderResId, int chipsDeleteResId, int chipsTextColorClicked, int chipsColorClicked, int chipsColor, int chipHeight, int chipLayout) {
             this.chipsBgColorClicked = chipsBgColorClicked;
             this.density = density;
@@ -192,5 +312,42 @@ public class Chip<K, T extends ChipsView.DataContract> implements View.OnClickLi
             this.chipHeight = chipHeight;
             this.chipLayout = chipLayout;
         }
+
+        Drawable newBackground(Resources res, boolean selected) {
+            loadDrawables(res);
+            return (selected ? mBackgroundClicked : mBackground).newDrawable(res);
+        }
+
+        Drawable newImageBackground(Resources res, boolean selected) {
+            loadDrawables(res);
+            return (selected ? mImageBackgroundClicked : mImageBackground).newDrawable(res);
+        }
+
+        /**
+         * @return the delete icon, or null if there is none
+         */
+        Drawable newDeleteDrawable(Resources res) {
+            loadDrawables(res);
+            return mDelete != null ? mDelete.newDrawable(res) : null;
+        }
+
+        private void loadDrawables(Resources res) {
+            if (mDrawablesLoaded) {
+                return;
+            }
+            mBackground = tinted(res, chipsBgRes, chipsBgColor);
+            mBackgroundClicked = tinted(res, chipsBgRes, chipsBgColorClicked);
+            mImageBackground = tinted(res, R.drawable.drawable_chip_circle, chipsColor);
+            mImageBackgroundClicked = tinted(res, R.drawable.drawable_chip_circle, chipsColorClicked);
+            mDelete = chipsDeleteResId != 0 ? ResourcesCompat.getDrawable(res, chipsDeleteResId, null).getConstantState() : null;
+            mDrawablesLoaded = true;
+        }
+
+        private static Drawable.ConstantState tinted(Resources res, int drawableRes, int color) {
+            Drawable drawable = DrawableCompat.wrap(ResourcesCompat.getDrawable(res, drawableRes, null).mutate());
+            DrawableCompat.setTint(drawable, color);
+            DrawableCompat.setTintMode(drawable, PorterDuff.Mode.SRC_ATOP);
+            return drawable.getConstantState();
+        }
     }
 }
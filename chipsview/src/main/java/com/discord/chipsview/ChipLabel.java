@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+/**
+ * Cuts chip labels to the length a chip shows. View-free, safe to call from any thread.
+ */
+final class ChipLabel {
+
+    static final int MAX_LENGTH = 30;
+
+    private ChipLabel() {}
+
+    /**
+     * @return {@code label}, cut off at {@link #MAX_LENGTH} and ending in "..." if it is longer
+     */
+    static String truncate(String label) {
+        if (label.length() > MAX_LENGTH) {
+            int end = MAX_LENGTH;
+            // don't split a surrogate pair, half an emoji renders as garbage
+            if (Character.isHighSurrogate(label.charAt(end - 1))) {
+                end--;
+            }
+            label = label.substring(0, end) + "...";
+        }
+        return label;
+    }
+}
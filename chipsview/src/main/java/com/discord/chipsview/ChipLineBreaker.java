@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import java.util.Arrays;
+
+/**
+ * View-free row packing for chips: chip widths go in, row assignments, x offsets
+ * and the position of the trailing text line come out.
+ *
+ * Mutations remember the first chip index they touched, and {@link #reflow()} only
+ * repacks from the row containing that index onward. Rows before it are kept as is.
+ */
+class ChipLineBreaker {
+
+    private static final int CLEAN = Integer.MAX_VALUE;
+
+    // if less than this part of the row is left, the text line moves to its own row
+    private static final float MIN_TEXT_LINE_FRACTION = 0.15f;
+
+    private final int mChipSpacing;
+
+    private int mAvailableWidth;
+
+    private int mCount;
+    private int[] mWidths = new int[16];
+    private int[] mRows = new int[16];
+    private int[] mOffsets = new int[16]; // prefix sum of widths and spacing within the row
+
+    private int mRowCount;
+    private int[] mRowStarts = new int[4];
+
+    private int mTextRow;
+    private int mTextMargin;
+
+    private int mFirstDirty = 0;
+    private int mFirstChangedRow;
+
+    ChipLineBreaker(int chipSpacing) {
+        mChipSpacing = chipSpacing;
+    }
+
+    public void setAvailableWidth(int availableWidth) {
+        if (mAvailableWidth != availableWidth) {
+            mAvailableWidth = availableWidth;
+            mFirstDirty = 0;
+        }
+    }
+
+    public int getAvailableWidth() {
+        return mAvailableWidth;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Removes {@code removeCount} chips at {@code index} and makes room for {@code insertCount}
+     * new ones there. Widths of inserted chips are 0 until set with {@link #setWidth(int, int)}.
+     */
+    public void splice(int index, int removeCount, int insertCount) {
+        if (index < 0 || removeCount < 0 || insertCount < 0 || index + removeCount > mCount) {
+            throw new IndexOutOfBoundsException("index: " + index + ", remove: " + removeCount + ", size: " + mCount);
+        }
+        if (removeCount == 0 && insertCount == 0) {
+            return;
+        }
+
+        int newCount = mCount - removeCount + insertCount;
+        ensureCapacity(newCount);
+
+        int tail = mCount - index - removeCount;
+        System.arraycopy(mWidths, index + removeCount, mWidths, index + insertCount, tail);
+        Arrays.fill(mWidths, index, index + insertCount, 0);
+
+        mCount = newCount;
+        markDirty(index);
+    }
+
+    public void clear() {
+        splice(0, mCount, 0);
+    }
+
+    public void setWidth(int index, int width) {
+        checkIndex(index);
+        if (mWidths[index] != width) {
+            mWidths[index] = width;
+            markDirty(index);
+        }
+    }
+
+    public int getWidth(int index) {
+        checkIndex(index);
+        return mWidths[index];
+    }
+
+    /**
+     * Forces the next {@link #reflow()} to repack every row.
+     */
+    public void invalidate() {
+        mFirstDirty = 0;
+    }
+
+    public boolean isDirty() {
+        return mFirstDirty != CLEAN;
+    }
+
+    /**
+     * Repacks rows starting at the row of the first changed chip.
+     *
+     * @return false if there is no width to pack into yet
+     */
+    public boolean reflow() {
+        if (mAvailableWidth <= 0) {
+            return false;
+        }
+
+        if (mFirstDirty == CLEAN) {
+            mFirstChangedRow = getLineCount();
+            return true;
+        }
+
+        // greedy packing: rows before the one holding the chip in front of the change can't move
+        int row = mFirstDirty > 0 ? mRows[mFirstDirty - 1] : 0;
+        int start = mFirstDirty > 0 ? mRowStarts[row] : 0;
+
+        mFirstChangedRow = row;
+        ensureRowCapacity(row + 1);
+        mRowStarts[row] = start;
+
+        int x = 0;
+        for (int i = start; i < mCount; i++) {
+            int width = mWidths[i];
+            if (x > 0 && x + width > mAvailableWidth) {
+                row++;
+                x = 0;
+                ensureRowCapacity(row + 1);
+                mRowStarts[row] = i;
+            }
+            mRows[i] = row;
+            mOffsets[i] = x;
+            x += width + mChipSpacing;
+        }
+        mRowCount = mCount == 0 ? 0 : row + 1;
+
+        // check if there is enough space left
+        if (mCount > 0 && !hasRoomForTextLine(x)) {
+            mTextRow = row + 1;
+            mTextMargin = 0;
+        } else {
+            mTextRow = mCount == 0 ? 0 : row;
+            mTextMargin = x;
+        }
+
+        mFirstDirty = CLEAN;
+        return true;
+    }
+
+    /**
+     * @return the first row whose contents may differ since the previous {@link #reflow()},
+     * or {@link #getLineCount()} if nothing changed
+     */
+    public int getFirstChangedRow() {
+        return mFirstChangedRow;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * @return number of rows including the one the text line sits on, at least 1
+     */
+    public int getLineCount() {
+        return Math.max(mRowCount, mTextRow + 1);
+    }
+
+    public int getRowStart(int row) {
+        checkRow(row);
+        return mRowStarts[row];
+    }
+
+    public int getRowEnd(int row) {
+        checkRow(row);
+        return row + 1 < mRowCount ? mRowStarts[row + 1] : mCount;
+    }
+
+    public int getRow(int index) {
+        checkIndex(index);
+        return mRows[index];
+    }
+
+    public int getOffset(int index) {
+        checkIndex(index);
+        return mOffsets[index];
+    }
+
+    public int getTextRow() {
+        return mTextRow;
+    }
+
+    public int getTextMargin() {
+        return mTextMargin;
+    }
+
+    /**
+     * @return whether a text line starting at {@code x} is wide enough to stay on the row
+     */
+    public boolean hasRoomForTextLine(int x) {
+        return (mAvailableWidth - x) >= (mAvailableWidth * MIN_TEXT_LINE_FRACTION);
+    }
+
+    /**
+     * For showing only the first {@code maxRows} rows and a summary chip of {@code summaryWidth}
+     * behind the last chip shown.
+     *
+     * @return the number of chips that fit with the summary, all of them if they take at most {@code maxRows} rows
+     */
+    public int getCollapsedCount(int maxRows, int summaryWidth) {
+        if (mRowCount <= maxRows) {
+            return mCount;
+        }
+        int lastRowStart = mRowStarts[maxRows - 1];
+        int end = mRowStarts[maxRows];
+        while (end > lastRowStart && getOffsetBehind(end - 1) + summaryWidth > mAvailableWidth) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @return offset of a chip placed right behind chip {@code index} in its row
+     */
+    public int getOffsetBehind(int index) {
+        checkIndex(index);
+        return mOffsets[index] + mWidths[index] + mChipSpacing;
+    }
+
+    private void markDirty(int index) {
+        if (index < mFirstDirty) {
+            mFirstDirty = index;
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (count > mWidths.length) {
+            int capacity = Math.max(count, mWidths.length * 2);
+            mWidths = Arrays.copyOf(mWidths, capacity);
+            mRows = Arrays.copyOf(mRows, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+        }
+    }
+
+    private void ensureRowCapacity(int count) {
+        if (count > mRowStarts.length) {
+            mRowStarts = Arrays.copyOf(mRowStarts, Math.max(count, mRowStarts.length * 2));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mCount);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mRowCount) {
+            throw new IndexOutOfBoundsException("row: " + row + ", rows: " + mRowCount);
+        }
+    }
+}
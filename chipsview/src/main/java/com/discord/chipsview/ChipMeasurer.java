@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import android.content.Context;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Computes chip widths from their label without inflating a chip view.
+ *
+ * A chip is its label plus fixed horizontal chrome: paddings, the image and the text margins.
+ * The chrome and the label's text paint are taken once from a prototype of the chip layout,
+ * after that a width is a single text measurement.
+ */
+class ChipMeasurer {
+
+    private final TextPaint mTextPaint;
+    private final int mChromeWidth;
+    private final float mFontScale;
+
+    // where the prototype places its text and image, for drawing chips without views
+    private final int mTextLeft;
+    private final int mImageCenterX;
+    private final int mImageDiameter;
+
+    ChipMeasurer(TextPaint textPaint, int chromeWidth, float fontScale, int textLeft, int imageCenterX, int imageDiameter) {
+        mTextPaint = textPaint;
+        mChromeWidth = chromeWidth;
+        mFontScale = fontScale;
+        mTextLeft = textLeft;
+        mImageCenterX = imageCenterX;
+        mImageDiameter = imageDiameter;
+    }
+
+    public int measure(CharSequence label) {
+        return measure(label, mTextPaint);
+    }
+
+    /**
+     * Measures with {@code textPaint}, a copy of {@link #getTextPaint()}. A TextPaint is not
+     * thread safe, this lets other threads measure with their own copy. Shaping the label there
+     * also fills the process wide text layout cache, so drawing it later on the UI thread is cheaper.
+     */
+    public int measure(CharSequence label, TextPaint textPaint) {
+        return mChromeWidth + (int) Math.ceil(Layout.getDesiredWidth(label, textPaint));
+    }
+
+    public int getChromeWidth() {
+        return mChromeWidth;
+    }
+
+    public float getFontScale() {
+        return mFontScale;
+    }
+
+    public TextPaint getTextPaint() {
+        return mTextPaint;
+    }
+
+    public int getTextLeft() {
+        return mTextLeft;
+    }
+
+    public int getImageCenterX() {
+        return mImageCenterX;
+    }
+
+    public int getImageDiameter() {
+        return mImageDiameter;
+    }
+
+    static ChipMeasurer create(Context context, Chip.ChipParams params) {
+        View prototype = View.inflate(context, params.chipLayout, null);
+        TextView textView = (TextView) prototype.findViewById(R.id.chip_text);
+        textView.setText(null);
+
+        int unspecified = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        prototype.measure(unspecified, unspecified);
+        prototype.layout(0, 0, prototype.getMeasuredWidth(), prototype.getMeasuredHeight());
+
+        int imageCenterX = 0;
+        int imageDiameter = 0;
+        View imageView = prototype.findViewById(R.id.chip_image);
+        if (imageView != null) {
+            imageCenterX = imageView.getLeft() + imageView.getWidth() / 2;
+            imageDiameter = imageView.getWidth() - imageView.getPaddingLeft() - imageView.getPaddingRight();
+        }
+
+        float fontScale = context.getResources().getConfiguration().fontScale;
+        return new ChipMeasurer(new TextPaint(textView.getPaint()), prototype.getMeasuredWidth(), fontScale,
+            textView.getLeft() + textView.getTotalPaddingLeft(), imageCenterX, imageDiameter);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.text.TextPaint;
+import android.text.style.ReplacementSpan;
+import android.view.View;
+
+/**
+ * Draws a chip in place of its placeholder character in {@link ChipsEditText}, so the text
+ * layout does the wrapping and no chip view is needed.
+ *
+ * Geometry comes from the {@link ChipMeasurer}; the background is drawn as a rounded rect
+ * in the chip colors and the image as a circle in the chip color, avatars are not loaded.
+ */
+class ChipSpan extends ReplacementSpan {
+
+    private final Chip<?, ?> mChip;
+    private final ChipMeasurer mMeasurer;
+    private final int mChipHeight;
+    private final int mSpacing;
+    private final Drawable mDeleteDrawable;
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF mRect = new RectF();
+
+    ChipSpan(Chip<?, ?> chip, ChipMeasurer measurer, int chipHeight, int spacing, Drawable deleteDrawable) {
+        mChip = chip;
+        mMeasurer = measurer;
+        mChipHeight = chipHeight;
+        mSpacing = spacing;
+        mDeleteDrawable = deleteDrawable;
+    }
+
+    public Chip<?, ?> getChip() {
+        return mChip;
+    }
+
+    /**
+     * @return width of the chip itself, without the spacing behind it
+     */
+    public int getWidth() {
+        return mChip.getWidth(mMeasurer);
+    }
+
+    public void onClick(View view) {
+        mChip.onClick(view);
+    }
+
+    @Override
+    public int getSize(Paint paint, CharSequence text, int start, int end, Paint.FontMetricsInt fm) {
+        if (fm != null) {
+            // grow the line around the text so the chip fits, keeping the text centered
+            paint.getFontMetricsInt(fm);
+            int extra = mChipHeight - (fm.descent - fm.ascent);
+            if (extra > 0) {
+                fm.ascent -= extra / 2;
+                fm.descent += extra - extra / 2;
+                fm.top = Math.min(fm.top, fm.ascent);
+                fm.bottom = Math.max(fm.bottom, fm.descent);
+            }
+        }
+        return getWidth() + mSpacing;
+    }
+
+    @Override
+    public void draw(Canvas canvas, CharSequence text, int start, int end, float x, int top, int y, int bottom, Paint paint) {
+        Chip.ChipParams params = mChip.getParams();
+        boolean selected = mChip.isSelected();
+
+        float chipTop = (top + bottom - mChipHeight) / 2f;
+        float radius = mChipHeight / 2f;
+        mRect.set(x, chipTop, x + getWidth(), chipTop + mChipHeight);
+        mPaint.setColor(selected ? params.chipsBgColorClicked : params.chipsBgColor);
+        canvas.drawRoundRect(mRect, radius, radius, mPaint);
+
+        float centerY = chipTop + radius;
+        int diameter = mMeasurer.getImageDiameter();
+        if (diameter > 0) {
+            float centerX = x + mMeasurer.getImageCenterX();
+            mPaint.setColor(selected ? params.chipsColorClicked : params.chipsColor);
+            canvas.drawCircle(centerX, centerY, diameter / 2f, mPaint);
+
+            if (selected && mDeleteDrawable != null) {
+                int left = (int) (centerX - diameter / 2f);
+                int drawableTop = (int) (centerY - diameter / 2f);
+                mDeleteDrawable.setBounds(left, drawableTop, left + diameter, drawableTop + diameter);
+                mDeleteDrawable.draw(canvas);
+            }
+        }
+
+        TextPaint textPaint = mMeasurer.getTextPaint();
+        textPaint.setColor(selected ? params.chipsTextColorClicked : params.chipsTextColor);
+        Paint.FontMetrics fm = textPaint.getFontMetrics();
+        String label = mChip.getLabel();
+        canvas.drawText(label, 0, label.length(), x + mMeasurer.getTextLeft(), centerY - (fm.ascent + fm.descent) / 2f, textPaint);
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Ordered chip map: O(1) lookup by key and O(1) first/last, O(log n) insert, remove and
+ * index queries by position.
+ *
+ * Entries sit in a treap ordered by position, with subtree sizes for positional access and
+ * parent links for index queries, and are linked in order for iteration. {@link #values()}
+ * returns an immutable snapshot that is only rebuilt after a change.
+ *
+ * The store also tracks which part of the order changed since {@link #markUnchanged()}, as a
+ * count of entries at the start and end that are still the same, so consumers can diff in
+ * proportion to the change.
+ */
+class ChipStore<K, V> implements Iterable<V> {
+
+    private final HashMap<K, Node<K, V>> mNodes = new HashMap<>();
+    private final Random mRandom = new Random();
+
+    private Node<K, V> mRoot;
+    private Node<K, V> mHead;
+    private Node<K, V> mTail;
+
+    private int mModCount;
+    private List<V> mSnapshot;
+
+    private int mUnchangedPrefix;
+    private int mUnchangedSuffix;
+
+    public int size() {
+        return mNodes.size();
+    }
+
+    public boolean isEmpty() {
+        return mNodes.isEmpty();
+    }
+
+    public boolean containsKey(K key) {
+        return mNodes.containsKey(key);
+    }
+
+    public V get(K key) {
+        Node<K, V> node = mNodes.get(key);
+        return node != null ? node.value : null;
+    }
+
+    public V getAt(int index) {
+        return nodeAt(index).value;
+    }
+
+    public V getFirst() {
+        return mHead != null ? mHead.value : null;
+    }
+
+    public V getLast() {
+        return mTail != null ? mTail.value : null;
+    }
+
+    /**
+     * @return position of the key, or -1 if it is not in the store
+     */
+    public int indexOf(K key) {
+        Node<K, V> node = mNodes.get(key);
+        return node != null ? indexOf(node) : -1;
+    }
+
+    /**
+     * Replaces the value of an existing key in place, or appends a new key.
+     *
+     * @return the previous value, or null
+     */
+    public V put(K key, V value) {
+        Node<K, V> node = mNodes.get(key);
+        if (node == null) {
+            add(size(), key, value);
+            return null;
+        }
+
+        V previous = node.value;
+        node.value = value;
+        int index = indexOf(node);
+        onChanged(index, size() - index - 1);
+        return previous;
+    }
+
+    public void add(int index, K key, V value) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+        if (mNodes.containsKey(key)) {
+            throw new IllegalArgumentException("key already present: " + key);
+        }
+
+        Node<K, V> node = new Node<>(key, value, mRandom.nextInt());
+        onChanged(index, size() - index);
+        insert(node, index);
+        mNodes.put(key, node);
+    }
+
+    public V remove(K key) {
+        Node<K, V> node = mNodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        int index = indexOf(node);
+        onChanged(index, size() - index - 1);
+        delete(node);
+        return node.value;
+    }
+
+    public V removeAt(int index) {
+        return remove(nodeAt(index).key);
+    }
+
+    /**
+     * Moves an existing key to {@code toIndex}, counted after its removal.
+     */
+    public void move(K key, int toIndex) {
+        if (!mNodes.containsKey(key)) {
+            throw new NoSuchElementException("key not present: " + key);
+        }
+        if (toIndex < 0 || toIndex >= size()) {
+            throw new IndexOutOfBoundsException("index: " + toIndex + ", size: " + size());
+        }
+        add(toIndex, key, remove(key));
+    }
+
+    public void clear() {
+        onChanged(0, 0);
+        mNodes.clear();
+        mRoot = null;
+        mHead = null;
+        mTail = null;
+    }
+
+    /**
+     * @return immutable snapshot of the values in order, the same instance until the store changes
+     */
+    public List<V> values() {
+        if (mSnapshot == null) {
+            List<V> values = new ArrayList<>(size());
+            for (Node<K, V> node = mHead; node != null; node = node.next) {
+                values.add(node.value);
+            }
+            mSnapshot = Collections.unmodifiableList(values);
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * @return number of entries at the start that are the same as at the last {@link #markUnchanged()}
+     */
+    public int getUnchangedPrefix() {
+        return Math.min(mUnchangedPrefix, size());
+    }
+
+    /**
+     * @return number of entries at the end that are the same as at the last {@link #markUnchanged()},
+     * not counting those already in the unchanged prefix
+     */
+    public int getUnchangedSuffix() {
+        return Math.min(mUnchangedSuffix, size() - getUnchangedPrefix());
+    }
+
+    public void markUnchanged() {
+        mUnchangedPrefix = size();
+        mUnchangedSuffix = size();
+    }
+
+    /**
+     * Iterates in order. Removing through the iterator is supported, other changes while
+     * iterating throw {@link ConcurrentModificationException}.
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private Node<K, V> mNext = mHead;
+            private Node<K, V> mLast;
+            private int mExpectedModCount = mModCount;
+
+            @Override
+            public boolean hasNext() {
+                return mNext != null;
+            }
+
+            @Override
+            public V next() {
+                if (mExpectedModCount != mModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (mNext == null) {
+                    throw new NoSuchElementException();
+                }
+                mLast = mNext;
+                mNext = mNext.next;
+                return mLast.value;
+            }
+
+            @Override
+            public void remove() {
+                if (mLast == null) {
+                    throw new IllegalStateException();
+                }
+                if (mExpectedModCount != mModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                ChipStore.this.remove(mLast.key);
+                mLast = null;
+                mExpectedModCount = mModCount;
+            }
+        };
+    }
+
+    /**
+     * Records a change at {@code index} that keeps the last {@code unchangedSuffix} entries.
+     */
+    private void onChanged(int index, int unchangedSuffix) {
+        mUnchangedPrefix = Math.min(mUnchangedPrefix, index);
+        mUnchangedSuffix = Math.min(mUnchangedSuffix, unchangedSuffix);
+        mModCount++;
+        mSnapshot = null;
+    }
+
+    private Node<K, V> nodeAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+
+        Node<K, V> node = mRoot;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private int indexOf(Node<K, V> node) {
+        int index = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                index += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return index;
+    }
+
+    private void insert(Node<K, V> node, int index) {
+        if (mRoot == null) {
+            mRoot = mHead = mTail = node;
+            return;
+        }
+
+        // the new node goes in as a leaf, right after its predecessor or left of its successor
+        Node<K, V> next = index < size() ? nodeAt(index) : null;
+        Node<K, V> prev = next != null ? next.prev : mTail;
+        if (next != null && next.left == null) {
+            next.left = node;
+            node.parent = next;
+        } else {
+            prev.right = node;
+            node.parent = prev;
+        }
+
+        node.prev = prev;
+        node.next = next;
+        if (prev != null) {
+            prev.next = node;
+        } else {
+            mHead = node;
+        }
+        if (next != null) {
+            next.prev = node;
+        } else {
+            mTail = node;
+        }
+
+        for (Node<K, V> parent = node.parent; parent != null; parent = parent.parent) {
+            parent.size++;
+        }
+        while (node.parent != null && node.priority > node.parent.priority) {
+            if (node == node.parent.left) {
+                rotateRight(node.parent);
+            } else {
+                rotateLeft(node.parent);
+            }
+        }
+    }
+
+    private void delete(Node<K, V> node) {
+        // rotate down until it is a leaf, then cut it off
+        while (node.left != null || node.right != null) {
+            if (node.right == null || (node.left != null && node.left.priority > node.right.priority)) {
+                rotateRight(node);
+            } else {
+                rotateLeft(node);
+            }
+        }
+
+        Node<K, V> parent = node.parent;
+        if (parent == null) {
+            mRoot = null;
+        } else if (parent.left == node) {
+            parent.left = null;
+        } else {
+            parent.right = null;
+        }
+        for (; parent != null; parent = parent.parent) {
+            parent.size--;
+        }
+
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            mHead = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            mTail = node.prev;
+        }
+        mNodes.remove(node.key);
+    }
+
+    private void rotateLeft(Node<K, V> x) {
+        Node<K, V> y = x.right;
+        x.right = y.left;
+        if (y.left != null) {
+            y.left.parent = x;
+        }
+        replaceChild(x, y);
+        y.left = x;
+        x.parent = y;
+        updateSize(x);
+        updateSize(y);
+    }
+
+    private void rotateRight(Node<K, V> x) {
+        Node<K, V> y = x.left;
+        x.left = y.right;
+        if (y.right != null) {
+            y.right.parent = x;
+        }
+        replaceChild(x, y);
+        y.right = x;
+        x.parent = y;
+        updateSize(x);
+        updateSize(y);
+    }
+
+    private void replaceChild(Node<K, V> oldChild, Node<K, V> newChild) {
+        Node<K, V> parent = oldChild.parent;
+        newChild.parent = parent;
+        if (parent == null) {
+            mRoot = newChild;
+        } else if (parent.left == oldChild) {
+            parent.left = newChild;
+        } else {
+            parent.right = newChild;
+        }
+    }
+
+    private static void updateSize(Node<?, ?> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static class Node<K, V> {
+        final K key;
+        V value;
+        final int priority;
+        int size = 1;
+
+        Node<K, V> left;
+        Node<K, V> right;
+        Node<K, V> parent;
+
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int priority) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits typed or pasted text into chip tokens at separator characters.
+ *
+ * Text behind the last separator is not a token yet, the user may still be typing it. Both
+ * steps are a single pass over the characters, so large pastes split in linear time.
+ */
+public class ChipTokenizer {
+
+    public static final String DEFAULT_SEPARATORS = ",;\n";
+
+    private final String mSeparators;
+
+    public ChipTokenizer() {
+        this(DEFAULT_SEPARATORS);
+    }
+
+    /**
+     * @param separators every character of it ends a token, the first one is used to join tokens
+     */
+    public ChipTokenizer(String separators) {
+        if (separators.isEmpty()) {
+            throw new IllegalArgumentException("no separators");
+        }
+        mSeparators = separators;
+    }
+
+    public boolean isSeparator(char c) {
+        return mSeparators.indexOf(c) >= 0;
+    }
+
+    /**
+     * @return separator and space to put between tokens that go back into the text
+     */
+    public String getDelimiter() {
+        return mSeparators.charAt(0) + " ";
+    }
+
+    /**
+     * @return index of the last separator in {@code text} between {@code start} and {@code end},
+     * or -1 if there is none
+     */
+    public int lastSeparator(CharSequence text, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (isSeparator(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the tokens of {@code text}, trimmed and without empty ones. Its end counts as a separator.
+     */
+    public List<String> split(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || isSeparator(text.charAt(i))) {
+                int end = i;
+                while (start < end && Character.isWhitespace(text.charAt(start))) {
+                    start++;
+                }
+                while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+                    end--;
+                }
+                if (start < end) {
+                    tokens.add(text.subSequence(start, end).toString());
+                }
+                start = i + 1;
+            }
+        }
+        return tokens;
+    }
+}
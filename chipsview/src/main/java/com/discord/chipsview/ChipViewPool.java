@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Bounded pool of inflated chip views, keyed by layout resource and shared by all ChipsViews.
+ *
+ * A view is handed out again to contexts of the activity it was inflated for whose themes
+ * agree on the attributes a chip's text takes its look from, see {@link #keyOf(Context)}.
+ * So a dialog that is opened again, or a list row that is bound again, gets the views the
+ * previous one released even though it has a new ContextThemeWrapper. Views of an activity that is finishing or changing its configuration are dropped
+ * instead of pooled, and the pooled ones are dropped when it is destroyed, so the pool never
+ * holds on to a dead activity. Main thread only.
+ *
+ * The pool can be stocked ahead of time with views inflated on a background thread, see
+ * {@link #prewarm(Context, int, int, Executor)}. Views that are inflated but not pooled yet are
+ * taken by the next {@link #acquire}, so a layout pass doesn't inflate what is already there.
+ */
+class ChipViewPool {
+
+    private static final String TAG = "ChipViewPool";
+
+    private static final int MAX_POOLED_VIEWS = 32; // per layout
+    private static final int MIN_PREWARMED_VIEWS = 8;
+
+    private static final SparseArray<KeyedPool<View>> sPool = new SparseArray<>();
+
+    // theme attributes the views are compared by, besides the activity
+    private static final int[] THEME_ATTRS = {
+        android.R.attr.textViewStyle,
+        android.R.attr.textAppearance,
+        android.R.attr.textColorPrimary,
+        android.R.attr.textColorSecondary,
+        android.R.attr.colorAccent,
+    };
+
+    // most views of a layout in use at once by a single ChipsView, prewarming aims for that many
+    private static final SparseIntArray sPeakInUse = new SparseIntArray();
+    // views of a layout being inflated in the background
+    private static final SparseIntArray sPrewarming = new SparseIntArray();
+    // views of a layout inflated in the background and not pooled yet, filled off the main thread
+    private static final SparseArray<Queue<View>> sInflated = new SparseArray<>();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static boolean sBackgroundInflationFailed;
+    private static boolean sLifecycleCallbacksRegistered;
+
+    /**
+     * @param metrics counts inflations if not null
+     * @return a pooled view for the layout and context, or a newly inflated one
+     */
+    static View acquire(Context context, int layoutRes, ChipsMetrics metrics) {
+        poolInflated(layoutRes);
+        KeyedPool<View> views = sPool.get(layoutRes);
+        if (views != null) {
+            View view = views.acquire(keyOf(context));
+            if (view != null) {
+                return view;
+            }
+        }
+        if (metrics == null) {
+            return View.inflate(context, layoutRes, null);
+        }
+        long start = metrics.begin(ChipsMetrics.INFLATE);
+        try {
+            return View.inflate(context, layoutRes, null);
+        } finally {
+            metrics.end(ChipsMetrics.INFLATE, start);
+        }
+    }
+
+    /**
+     * Puts a view back, detaching it first. Once the pool for the layout is full, the oldest view is dropped.
+     */
+    static void release(int layoutRes, View view) {
+        if (view.getParent() instanceof ViewGroup) {
+            ((ViewGroup) view.getParent()).removeView(view);
+        }
+        Context context = view.getContext();
+        if (isGoingAway(context)) {
+            return;
+        }
+        registerLifecycleCallbacks(context);
+
+        KeyedPool<View> views = sPool.get(layoutRes);
+        if (views == null) {
+            views = new KeyedPool<>(MAX_POOLED_VIEWS);
+            sPool.put(layoutRes, views);
+        }
+        views.release(keyOf(context), view);
+    }
+
+    /**
+     * Records that a ChipsView has {@code count} views of the layout in use.
+     */
+    static void noteInUse(int layoutRes, int count) {
+        if (count > sPeakInUse.get(layoutRes)) {
+            sPeakInUse.put(layoutRes, Math.min(count, MAX_POOLED_VIEWS));
+        }
+    }
+
+    /**
+     * Inflates views for the layout and context on {@code executor} and pools them as they are
+     * ready, until the pool holds as many as were in use at most, at least {@code expected}
+     * and {@link #MIN_PREWARMED_VIEWS}, at most {@link #MAX_POOLED_VIEWS}.
+     */
+    static void prewarm(final Context context, final int layoutRes, int expected, Executor executor) {
+        if (sBackgroundInflationFailed || isGoingAway(context)) {
+            return;
+        }
+        poolInflated(layoutRes);
+        int target = Math.min(MAX_POOLED_VIEWS, Math.max(Math.max(MIN_PREWARMED_VIEWS, expected), sPeakInUse.get(layoutRes)));
+        final int missing = target - countPooled(context, layoutRes) - sPrewarming.get(layoutRes);
+        if (missing <= 0) {
+            return;
+        }
+        sPrewarming.put(layoutRes, sPrewarming.get(layoutRes) + missing);
+        Queue<View> inflated = sInflated.get(layoutRes);
+        if (inflated == null) {
+            inflated = new ConcurrentLinkedQueue<>();
+            sInflated.put(layoutRes, inflated);
+        }
+        final Queue<View> ready = inflated;
+
+        // an inflater of its own, the context's one is used on the main thread at the same time
+        final LayoutInflater inflater = LayoutInflater.from(context).cloneInContext(context);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < missing; i++) {
+                    final View view;
+                    try {
+                        view = inflater.inflate(layoutRes, null);
+                    } catch (RuntimeException e) {
+                        // e.g. a view in the layout that needs a Looper, inflate on the main thread from now on
+                        Log.w(TAG, "Inflating chip views in the background failed", e);
+                        final int notInflated = missing - i;
+                        sMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                sBackgroundInflationFailed = true;
+                                sPrewarming.put(layoutRes, sPrewarming.get(layoutRes) - notInflated);
+                            }
+                        });
+                        return;
+                    }
+                    ready.add(view);
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            poolInflated(layoutRes);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves the views inflated in the background into the pool.
+     */
+    private static void poolInflated(int layoutRes) {
+        Queue<View> inflated = sInflated.get(layoutRes);
+        if (inflated == null) {
+            return;
+        }
+        View view;
+        while ((view = inflated.poll()) != null) {
+            sPrewarming.put(layoutRes, sPrewarming.get(layoutRes) - 1);
+            release(layoutRes, view);
+        }
+    }
+
+    private static int countPooled(Context context, int layoutRes) {
+        KeyedPool<View> views = sPool.get(layoutRes);
+        return views != null ? views.count(keyOf(context)) : 0;
+    }
+
+    /**
+     * Drops the pooled views of {@code activity}.
+     */
+    static void clear(Activity activity) {
+        for (int i = 0; i < sPool.size(); i++) {
+            sPool.valueAt(i).removeOwner(activity);
+        }
+    }
+
+    /**
+     * @return the context's activity, or the context itself if it has none, with the values of
+     * {@link #THEME_ATTRS} in its theme
+     */
+    private static KeyedPool.Key keyOf(Context context) {
+        Activity activity = getActivity(context);
+        Resources.Theme theme = context.getTheme();
+        TypedValue value = new TypedValue();
+        int[] fingerprint = new int[THEME_ATTRS.length * 2];
+        for (int i = 0; i < THEME_ATTRS.length; i++) {
+            if (theme.resolveAttribute(THEME_ATTRS[i], value, true)) {
+                fingerprint[2 * i] = value.resourceId;
+                fingerprint[2 * i + 1] = value.data;
+            }
+        }
+        return new KeyedPool.Key(activity != null ? activity : context, fingerprint);
+    }
+
+    private static void registerLifecycleCallbacks(Context context) {
+        if (sLifecycleCallbacksRegistered) {
+            return;
+        }
+        Context applicationContext = context.getApplicationContext();
+        if (!(applicationContext instanceof Application)) {
+            return;
+        }
+        sLifecycleCallbacksRegistered = true;
+        ((Application) applicationContext).registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+            @Override
+            public void onActivityStarted(Activity activity) {}
+
+            @Override
+            public void onActivityResumed(Activity activity) {}
+
+            @Override
+            public void onActivityPaused(Activity activity) {}
+
+            @Override
+            public void onActivityStopped(Activity activity) {}
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                clear(activity);
+            }
+        });
+    }
+
+    /**
+     * @return whether the context's activity is destroyed or about to be, its views won't be used again
+     */
+    private static boolean isGoingAway(Context context) {
+        Activity activity = getActivity(context);
+        if (activity == null) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && activity.isDestroyed()) {
+            return true;
+        }
+        return activity.isFinishing() || activity.isChangingConfigurations();
+    }
+
+    private static Activity getActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return (Activity) context;
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+}
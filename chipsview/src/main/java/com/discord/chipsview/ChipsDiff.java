@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal set of removes, moves and inserts that turns one key order into another.
+ *
+ * Keys that are in both orders keep their place if they are part of a longest increasing
+ * subsequence of target positions, only the others move. Pure and thread safe, so it can be
+ * computed off the main thread.
+ *
+ * Applying it: remove {@link #removed} and {@link #moved} keys, then insert the target keys at
+ * {@link #insertIndices} in ascending order, moved ones with the entries they had.
+ */
+final class ChipsDiff<K> {
+
+    // keys that are not in the target
+    public final List<K> removed;
+    // keys that are in both, but have to be taken out and inserted again
+    public final List<K> moved;
+    // ascending positions in the target of moved and new keys
+    public final int[] insertIndices;
+
+    private ChipsDiff(List<K> removed, List<K> moved, int[] insertIndices) {
+        this.removed = removed;
+        this.moved = moved;
+        this.insertIndices = insertIndices;
+    }
+
+    public boolean isEmpty() {
+        return removed.isEmpty() && insertIndices.length == 0;
+    }
+
+    /**
+     * @param current keys in their current order
+     * @param target keys in the wanted order, without duplicates
+     */
+    public static <K> ChipsDiff<K> calculate(List<K> current, List<K> target) {
+        Map<K, Integer> targetIndices = new HashMap<>(target.size() * 2);
+        for (int i = 0; i < target.size(); i++) {
+            targetIndices.put(target.get(i), i);
+        }
+
+        List<K> removed = new ArrayList<>();
+        List<K> kept = new ArrayList<>();
+        int[] keptTargetIndices = new int[current.size()];
+        for (K key : current) {
+            Integer index = targetIndices.get(key);
+            if (index == null) {
+                removed.add(key);
+            } else {
+                keptTargetIndices[kept.size()] = index;
+                kept.add(key);
+            }
+        }
+
+        boolean[] stable = longestIncreasingSubsequence(keptTargetIndices, kept.size());
+        List<K> moved = new ArrayList<>();
+        Set<Integer> stableTargetIndices = new HashSet<>();
+        for (int i = 0; i < kept.size(); i++) {
+            if (stable[i]) {
+                stableTargetIndices.add(keptTargetIndices[i]);
+            } else {
+                moved.add(kept.get(i));
+            }
+        }
+
+        int[] insertIndices = new int[target.size() - stableTargetIndices.size()];
+        int count = 0;
+        for (int i = 0; i < target.size(); i++) {
+            if (!stableTargetIndices.contains(i)) {
+                insertIndices[count++] = i;
+            }
+        }
+        return new ChipsDiff<>(removed, moved, insertIndices);
+    }
+
+    /**
+     * @return which of the first {@code size} values are part of a longest strictly increasing subsequence
+     */
+    static boolean[] longestIncreasingSubsequence(int[] values, int size) {
+        // tails[l]: index of the smallest value that ends an increasing run of length l + 1
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] result = new boolean[size];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+        return result;
+    }
+}
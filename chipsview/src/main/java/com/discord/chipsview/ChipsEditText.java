@@ -18,6 +18,9 @@ package com.discord.chipsview;
 
 import android.content.Context;
 import android.support.v7.widget.AppCompatEditText;
+import android.text.Editable;
+import android.text.Layout;
+import android.view.MotionEvent;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 
@@ -25,6 +28,11 @@ public class ChipsEditText extends AppCompatEditText {
 
     private InputConnectionWrapperInterface mInputConnectionWrapperInterface;
 
+    // in span mode, the first characters of the text are chips and can't be edited
+    private int mChipsTextLength;
+    private ChipSpan mPressedChipSpan;
+    private PasteListener mPasteListener;
+
     public ChipsEditText(Context context, InputConnectionWrapperInterface inputConnectionWrapperInterface) {
         super(context);
         this.mInputConnectionWrapperInterface = inputConnectionWrapperInterface;
@@ -39,7 +47,93 @@ public class ChipsEditText extends AppCompatEditText {
         return super.onCreateInputConnection(outAttrs);
     }
 
+    void setPasteListener(PasteListener pasteListener) {
+        mPasteListener = pasteListener;
+    }
+
+    @Override
+    public boolean onTextContextMenuItem(int id) {
+        boolean handled = super.onTextContextMenuItem(id);
+        if (id == android.R.id.paste && mPasteListener != null) {
+            mPasteListener.onPaste();
+        }
+        return handled;
+    }
+
+    /**
+     * Keeps the cursor behind the first {@code chipsTextLength} characters, which hold {@link ChipSpan}s.
+     */
+    void setChipsTextLength(int chipsTextLength) {
+        mChipsTextLength = chipsTextLength;
+        if (length() >= chipsTextLength && getSelectionStart() < chipsTextLength) {
+            setSelection(Math.max(getSelectionEnd(), chipsTextLength));
+        }
+    }
+
+    @Override
+    protected void onSelectionChanged(int selStart, int selEnd) {
+        if (mChipsTextLength > 0 && length() >= mChipsTextLength && (selStart < mChipsTextLength || selEnd < mChipsTextLength)) {
+            setSelection(Math.max(selStart, mChipsTextLength), Math.max(selEnd, mChipsTextLength));
+            return;
+        }
+        super.onSelectionChanged(selStart, selEnd);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mPressedChipSpan = findChipSpan(event.getX(), event.getY());
+                break;
+            case MotionEvent.ACTION_UP:
+                if (mPressedChipSpan != null) {
+                    ChipSpan span = mPressedChipSpan;
+                    mPressedChipSpan = null;
+                    if (span == findChipSpan(event.getX(), event.getY())) {
+                        span.onClick(this);
+                    }
+                    return true;
+                }
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mPressedChipSpan = null;
+                break;
+        }
+
+        // chip touches don't move the cursor
+        return mPressedChipSpan != null || super.onTouchEvent(event);
+    }
+
+    private ChipSpan findChipSpan(float x, float y) {
+        Layout layout = getLayout();
+        if (layout == null || mChipsTextLength == 0) {
+            return null;
+        }
+
+        int line = layout.getLineForVertical((int) y - getTotalPaddingTop() + getScrollY());
+        float lineX = x - getTotalPaddingLeft() + getScrollX();
+        int offset = layout.getOffsetForHorizontal(line, lineX);
+
+        // the nearest offset may be on either side of the chip that was hit
+        Editable text = getText();
+        for (int i = Math.max(0, offset - 1); i <= Math.min(offset, mChipsTextLength - 1); i++) {
+            if (layout.getLineForOffset(i) != line) {
+                continue;
+            }
+            ChipSpan[] spans = text.getSpans(i, i + 1, ChipSpan.class);
+            float left = layout.getPrimaryHorizontal(i);
+            if (spans.length > 0 && lineX >= left && lineX < left + spans[0].getWidth()) {
+                return spans[0];
+            }
+        }
+        return null;
+    }
+
     public interface InputConnectionWrapperInterface {
         InputConnection getInputConnection(InputConnection target);
     }
+
+    interface PasteListener {
+        void onPaste();
+    }
 }
@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.SparseIntArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Places chip views directly in rows, without a container per row.
+ *
+ * Rows come from a {@link ChipLineBreaker} fed with the chips' cached widths, so they are known
+ * without any chip view. The children are the views of a contiguous range of chips in chip order:
+ * all of them, or in virtualized mode only those in rows near the viewport. Views are only added
+ * or removed where that range changed.
+ *
+ * In collapsed mode only the first rows are shown, followed by a summary chip counting the
+ * hidden chips, which is the last child.
+ */
+public class ChipsFlowLayout extends ViewGroup {
+
+    private static final int OVERSCAN_ROWS = 2;
+    private static final int MAX_CACHED_SUMMARY_WIDTHS = 16;
+
+    private final int mLineHeight;
+    private final int mChipSpacing;
+    private final ChipLineBreaker mLineBreaker;
+    private ChipMeasurer mMeasurer;
+
+    // all chips as of the previous pass, the line breaker holds their widths in the same order
+    private List<? extends Chip> mChips = Collections.emptyList();
+
+    // chips whose views are the children, in child order, starting at mChips[mBoundStart]
+    private List<? extends Chip> mBoundChips = Collections.emptyList();
+    private int mBoundStart;
+
+    private boolean mVirtualized;
+    private int mViewportTop;
+    private int mViewportBottom;
+
+    // collapsed mode: at most mMaxRows rows of chips, 0 for no limit
+    private int mMaxRows;
+    private View mSummaryView;
+    private TextView mSummaryText;
+    private boolean mCollapsed;
+    private int mCollapsedShown;
+    private int mSummaryOffset;
+    private int mSummaryWidth;
+    // summary width by number of hidden chips, so binding while scrolling doesn't measure it again
+    private final SparseIntArray mSummaryWidths = new SparseIntArray();
+    private int mSummaryCount = -1;
+    private int mCollapsedTextRow;
+    private int mCollapsedTextMargin;
+
+    // progressive binding: views are created for at most this long per frame, 0 for no limit
+    private long mBindBudgetNanos;
+    private ChipsView.BindingProgressListener mBindingProgressListener;
+    private boolean mBindScheduled;
+    private final Runnable mBindRemaining = new Runnable() {
+        @Override
+        public void run() {
+            mBindScheduled = false;
+            updateBoundChips();
+        }
+    };
+
+    public ChipsFlowLayout(Context context, int lineHeight, int chipSpacing) {
+        super(context);
+
+        mLineHeight = lineHeight;
+        mChipSpacing = chipSpacing;
+        mLineBreaker = new ChipLineBreaker(chipSpacing);
+    }
+
+    /**
+     * Places {@code chips}, an immutable list. The caller guarantees that its first
+     * {@code unchangedPrefix} and last {@code unchangedSuffix} chips are the same as in the
+     * list of the previous call, only the range between them is diffed and measured.
+     */
+    public TextLineParams onChipsChanged(List<? extends Chip> chips, int unchangedPrefix, int unchangedSuffix, ChipMeasurer measurer) {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width <= 0) {
+            return null;
+        }
+        mLineBreaker.setAvailableWidth(width);
+
+        int oldSize = mChips.size();
+        int newSize = chips.size();
+
+        // only the range between the common prefix and suffix changed
+        int prefix = Math.min(unchangedPrefix, Math.min(oldSize, newSize));
+        while (prefix < oldSize && prefix < newSize && mChips.get(prefix) == chips.get(prefix)) {
+            prefix++;
+        }
+        int suffix = Math.min(unchangedSuffix, Math.min(oldSize, newSize) - prefix);
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+            && mChips.get(oldSize - 1 - suffix) == chips.get(newSize - 1 - suffix)) {
+            suffix++;
+        }
+
+        int inserted = newSize - prefix - suffix;
+        mLineBreaker.splice(prefix, oldSize - prefix - suffix, inserted);
+
+        // widths are cached per chip, a new measurer (font scale, style) means all of them may differ
+        boolean remeasureAll = measurer != mMeasurer;
+        mMeasurer = measurer;
+        int measureStart = remeasureAll ? 0 : prefix;
+        int measureEnd = remeasureAll ? newSize : prefix + inserted;
+        for (int i = measureStart; i < measureEnd; i++) {
+            mLineBreaker.setWidth(i, chips.get(i).getWidth(measurer));
+        }
+        mChips = chips;
+
+        mLineBreaker.reflow();
+        bindChips(remeasureAll);
+
+        if (mCollapsed) {
+            return new TextLineParams(mCollapsedTextRow, mCollapsedTextMargin);
+        }
+        return new TextLineParams(mLineBreaker.getTextRow(), mLineBreaker.getTextMargin());
+    }
+
+    /**
+     * The view shown behind the last chip in collapsed mode, {@code summaryText} is the part
+     * of it that gets the number of hidden chips.
+     */
+    public void setSummaryView(View summaryView, TextView summaryText) {
+        mSummaryView = summaryView;
+        mSummaryText = summaryText;
+        mSummaryWidths.clear();
+        mSummaryCount = -1;
+    }
+
+    /**
+     * Shows only the first {@code maxRows} rows of chips and the summary view, until the next
+     * {@link #onChipsChanged}. 0 shows all rows.
+     *
+     * @return whether the limit changed
+     */
+    public boolean setMaxRows(int maxRows) {
+        if (mMaxRows == maxRows) {
+            return false;
+        }
+        mMaxRows = maxRows;
+        return true;
+    }
+
+    /**
+     * In virtualized mode only chips in rows near the viewport have views, the layout keeps the height of all rows.
+     */
+    public void setVirtualized(boolean virtualized) {
+        if (mVirtualized != virtualized) {
+            mVirtualized = virtualized;
+            updateBoundChips();
+        }
+    }
+
+    /**
+     * Creates chip views for at most {@code frameBudgetMillis} per frame, in chip order, and the
+     * rest in the following frames. Rows keep their place, so chips fill in without moving.
+     * {@code listener}, if not null, hears after each frame how many of the chips are shown.
+     * A budget of 0 creates all views at once.
+     */
+    public void setProgressiveBinding(long frameBudgetMillis, ChipsView.BindingProgressListener listener) {
+        mBindBudgetNanos = frameBudgetMillis * 1000000L;
+        mBindingProgressListener = listener;
+        updateBoundChips();
+    }
+
+    /**
+     * Sets the visible part of this layout, in its own coordinates.
+     */
+    public void setViewport(int top, int bottom) {
+        mViewportTop = top;
+        mViewportBottom = bottom;
+        if (mVirtualized) {
+            updateBoundChips();
+        }
+    }
+
+    /**
+     * Removes all chip views and returns them to the pool, the next pass adds them again.
+     */
+    public void releaseChipViews() {
+        if (mBindScheduled) {
+            removeCallbacks(mBindRemaining);
+            mBindScheduled = false;
+        }
+        mCollapsed = false;
+        removeAllViewsInLayout();
+        for (Chip chip : mBoundChips) {
+            chip.releaseView();
+        }
+        mBoundChips = Collections.emptyList();
+        mBoundStart = 0;
+        requestLayout();
+    }
+
+    private void updateBoundChips() {
+        if (!mLineBreaker.isDirty()) {
+            bindChips(false);
+        }
+    }
+
+    /**
+     * Makes the children the views of the chips that should be shown, adding and removing
+     * only where they differ from the current ones.
+     */
+    private void bindChips(boolean forceLayout) {
+        boolean wasCollapsed = mCollapsed;
+        mCollapsed = mMaxRows > 0 && mSummaryView != null && mLineBreaker.getRowCount() > mMaxRows;
+        if (mCollapsed) {
+            mCollapsedShown = collapse();
+        }
+
+        int start = 0;
+        int end = mCollapsed ? mCollapsedShown : mChips.size();
+        if (mVirtualized) {
+            start = getViewportStart(OVERSCAN_ROWS);
+            end = Math.max(start, Math.min(end, getViewportEnd(OVERSCAN_ROWS)));
+        }
+
+        List<? extends Chip> newBound = mChips.subList(start, end);
+        int oldSize = mBoundChips.size();
+        int newSize = newBound.size();
+
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && mBoundChips.get(prefix) == newBound.get(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+            && mBoundChips.get(oldSize - 1 - suffix) == newBound.get(newSize - 1 - suffix)) {
+            suffix++;
+        }
+
+        int removed = oldSize - prefix - suffix;
+        int inserted = newSize - prefix - suffix;
+        if (removed > 0) {
+            removeViewsInLayout(prefix, removed);
+            releaseViews(mBoundChips.subList(prefix, prefix + removed), newBound.subList(prefix, prefix + inserted));
+        }
+
+        // in progressive mode the views that don't fit in the budget are created in the next frames,
+        // the children stay the contiguous range from the start up to the first chip without a view
+        long bindStart = mBindBudgetNanos > 0 ? System.nanoTime() : 0;
+        for (int i = prefix; i < prefix + inserted; i++) {
+            if (i > prefix && mBindBudgetNanos > 0 && System.nanoTime() - bindStart > mBindBudgetNanos) {
+                removeViewsInLayout(i, suffix);
+                releaseViews(newBound.subList(prefix + inserted, newSize), Collections.<Chip>emptyList());
+                newBound = newBound.subList(0, i);
+                break;
+            }
+            View view = newBound.get(i).getView();
+            addViewInLayout(view, i, view.getLayoutParams(), true);
+        }
+        int bound = newBound.size();
+        if (bound < newSize && !mBindScheduled) {
+            mBindScheduled = true;
+            postOnAnimation(mBindRemaining);
+        }
+        if (inserted > 0 && mBindingProgressListener != null) {
+            mBindingProgressListener.onChipsBound(bound, newSize);
+        }
+
+        // mChips is never modified, so a view of it stays valid
+        boolean moved = start != mBoundStart;
+        mBoundChips = newBound;
+        mBoundStart = start;
+
+        // the summary stays behind the chip views
+        if (mCollapsed && mSummaryView.getParent() != this) {
+            addViewInLayout(mSummaryView, -1, mSummaryView.getLayoutParams(), true);
+        } else if (!mCollapsed && mSummaryView != null && mSummaryView.getParent() == this) {
+            removeViewInLayout(mSummaryView);
+        }
+
+        if (removed > 0 || inserted > 0 || moved || forceLayout || mCollapsed || wasCollapsed
+            || mLineBreaker.getFirstChangedRow() < mLineBreaker.getLineCount()) {
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    /**
+     * @return the chips that are shown in the rows at most {@code rows} rows away from the viewport,
+     * whether they have views or not. Null while a pass is pending.
+     */
+    List<? extends Chip> getChipsNearViewport(int rows) {
+        if (mLineBreaker.isDirty()) {
+            return null;
+        }
+        int start = getViewportStart(rows);
+        int end = Math.min(mCollapsed ? mCollapsedShown : mChips.size(), getViewportEnd(rows));
+        return start < end ? mChips.subList(start, end) : Collections.<Chip>emptyList();
+    }
+
+    /**
+     * @return first chip in the rows from {@code rows} rows above the viewport on
+     */
+    private int getViewportStart(int rows) {
+        int top = mViewportTop - getPaddingTop();
+        int firstRow = Math.max(0, top / mLineHeight - rows);
+        return firstRow < mLineBreaker.getRowCount() ? mLineBreaker.getRowStart(firstRow) : mChips.size();
+    }
+
+    /**
+     * @return end of the chips in the rows up to {@code rows} rows below the viewport
+     */
+    private int getViewportEnd(int rows) {
+        int top = mViewportTop - getPaddingTop();
+        int bottom = Math.max(top, mViewportBottom - getPaddingTop());
+        int lastRow = Math.min(mLineBreaker.getRowCount() - 1, bottom / mLineHeight + rows);
+        return lastRow >= 0 ? mLineBreaker.getRowEnd(lastRow) : 0;
+    }
+
+    /**
+     * Fits the summary behind the chips of the first {@link #mMaxRows} rows.
+     *
+     * @return number of chips shown
+     */
+    private int collapse() {
+        // digits of all chips, so the width never falls short
+        int summaryWidth = measureSummary(mChips.size());
+        int shown = mLineBreaker.getCollapsedCount(mMaxRows, summaryWidth);
+        mSummaryWidth = measureSummary(mChips.size() - shown);
+        setSummaryCount(mChips.size() - shown);
+
+        int lastRowStart = mLineBreaker.getRowStart(mMaxRows - 1);
+        mSummaryOffset = shown > lastRowStart ? mLineBreaker.getOffsetBehind(shown - 1) : 0;
+        int textMargin = mSummaryOffset + mSummaryWidth + mChipSpacing;
+        if (mLineBreaker.hasRoomForTextLine(textMargin)) {
+            mCollapsedTextRow = mMaxRows - 1;
+            mCollapsedTextMargin = textMargin;
+        } else {
+            mCollapsedTextRow = mMaxRows;
+            mCollapsedTextMargin = 0;
+        }
+        return shown;
+    }
+
+    private int measureSummary(int hiddenCount) {
+        int width = mSummaryWidths.get(hiddenCount, -1);
+        if (width >= 0) {
+            return width;
+        }
+        setSummaryCount(hiddenCount);
+        int unspecified = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        mSummaryView.measure(unspecified, MeasureSpec.makeMeasureSpec(mSummaryView.getLayoutParams().height, MeasureSpec.EXACTLY));
+        width = mSummaryView.getMeasuredWidth();
+        if (mSummaryWidths.size() >= MAX_CACHED_SUMMARY_WIDTHS) {
+            mSummaryWidths.clear();
+        }
+        mSummaryWidths.put(hiddenCount, width);
+        return width;
+    }
+
+    private void setSummaryCount(int hiddenCount) {
+        if (hiddenCount != mSummaryCount) {
+            mSummaryCount = hiddenCount;
+            mSummaryText.setText(getResources().getString(R.string.chips_summary, hiddenCount));
+        }
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // the font scale or the locale may have changed
+        mSummaryWidths.clear();
+        mSummaryCount = -1;
+    }
+
+    /**
+     * Releases the views of {@code removed} chips, except those that are placed again.
+     */
+    private static void releaseViews(List<? extends Chip> removed, List<? extends Chip> reinserted) {
+        Set<Chip> kept = Collections.newSetFromMap(new IdentityHashMap<Chip, Boolean>());
+        kept.addAll(reinserted);
+        for (Chip chip : removed) {
+            if (!kept.contains(chip)) {
+                chip.releaseView();
+            }
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int availableWidth = width - getPaddingLeft() - getPaddingRight();
+        if (availableWidth > 0) {
+            mLineBreaker.setAvailableWidth(availableWidth);
+            mLineBreaker.reflow();
+        }
+
+        for (int i = 0; i < mBoundChips.size(); i++) {
+            View child = getChildAt(i);
+            child.measure(MeasureSpec.makeMeasureSpec(mLineBreaker.getWidth(mBoundStart + i), MeasureSpec.EXACTLY),
+                getChildMeasureSpec(heightMeasureSpec, 0, child.getLayoutParams().height));
+        }
+        if (mCollapsed) {
+            mSummaryView.measure(MeasureSpec.makeMeasureSpec(mSummaryWidth, MeasureSpec.EXACTLY),
+                getChildMeasureSpec(heightMeasureSpec, 0, mSummaryView.getLayoutParams().height));
+        }
+
+        int lineCount = mCollapsed ? mCollapsedTextRow + 1 : mLineBreaker.getLineCount();
+        int height = getPaddingTop() + lineCount * mLineHeight + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+        for (int i = 0; i < mBoundChips.size(); i++) {
+            View child = getChildAt(i);
+            int index = mBoundStart + i;
+            int x = left + mLineBreaker.getOffset(index);
+            int y = top + mLineBreaker.getRow(index) * mLineHeight;
+            child.layout(x, y, x + child.getMeasuredWidth(), y + child.getMeasuredHeight());
+        }
+        if (mCollapsed) {
+            int x = left + mSummaryOffset;
+            int y = top + (mMaxRows - 1) * mLineHeight;
+            mSummaryView.layout(x, y, x + mSummaryView.getMeasuredWidth(), y + mSummaryView.getMeasuredHeight());
+        }
+    }
+
+    @Override
+    public boolean shouldDelayChildPressedState() {
+        return false;
+    }
+
+    public static class TextLineParams {
+        public int row;
+        public int lineMargin;
+
+        public TextLineParams(int row, int lineMargin) {
+            this.row = row;
+            this.lineMargin = lineMargin;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Opt-in counters and latency histograms for the work a {@link ChipsView} does on the main
+ * thread, see {@link ChipsView#setMetrics(ChipsMetrics)}. Events are added up until
+ * {@link #flush()} hands them to the {@link Sink} and starts over. Flushing happens on its own
+ * with the first event that ends a flush interval after the first one of a report, and when the
+ * view is detached; call {@link #flush()} to report what there is at other times, e.g. when the
+ * app goes to the background. Optionally each event is also a named section in systrace.
+ *
+ * Main thread only.
+ */
+public class ChipsMetrics {
+
+    /** A chips layout pass: packing rows and adding, removing and binding chip views. */
+    public static final int RELAYOUT = 0;
+    /** Measuring a chip label on the main thread. */
+    public static final int MEASURE = 1;
+    /** Inflating a chip view because the pool had none. */
+    public static final int INFLATE = 2;
+    /** Binding a chip's avatar to its image view. */
+    public static final int IMAGE_BIND = 3;
+
+    public static final int EVENT_COUNT = 4;
+
+    /**
+     * Latency histograms have this many buckets: bucket 0 counts events below 1 microsecond,
+     * bucket i those from 2^(i-1) up to 2^i microseconds, and the last one everything longer.
+     */
+    public static final int BUCKET_COUNT = 16;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 60 * 1000;
+
+    private static final String[] EVENT_NAMES = {"relayout", "measure", "inflate", "imageBind"};
+    private static final String[] TRACE_SECTIONS = {
+        "ChipsView relayout", "ChipsView measure", "ChipsView inflate", "ChipsView imageBind"};
+
+    private final Sink mSink;
+    private final boolean mTrace;
+    private final long mFlushIntervalNanos;
+
+    private long[] mCounts = new long[EVENT_COUNT];
+    private long[] mTotalNanos = new long[EVENT_COUNT];
+    private long[][] mHistograms = new long[EVENT_COUNT][BUCKET_COUNT];
+    private boolean mEmpty = true;
+    private long mReportStartNanos;
+
+    /**
+     * @param trace whether events are also systrace sections, on API 18 and up
+     */
+    public ChipsMetrics(Sink sink, boolean trace) {
+        this(sink, trace, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param trace whether events are also systrace sections, on API 18 and up
+     * @param flushIntervalMillis events are flushed once they span this long
+     */
+    public ChipsMetrics(Sink sink, boolean trace, long flushIntervalMillis) {
+        mSink = sink;
+        mTrace = trace && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        mFlushIntervalNanos = flushIntervalMillis * 1000000;
+    }
+
+    public static String getEventName(int event) {
+        return EVENT_NAMES[event];
+    }
+
+    /**
+     * Starts timing an event.
+     *
+     * @return the start time to pass to {@link #end(int, long)}
+     */
+    long begin(int event) {
+        if (mTrace) {
+            Trace.beginSection(TRACE_SECTIONS[event]);
+        }
+        return System.nanoTime();
+    }
+
+    void end(int event, long startNanos) {
+        long now = System.nanoTime();
+        if (mTrace) {
+            Trace.endSection();
+        }
+        if (mEmpty) {
+            mReportStartNanos = startNanos;
+        }
+        record(event, now - startNanos);
+        if (now - mReportStartNanos >= mFlushIntervalNanos) {
+            flush();
+        }
+    }
+
+    void record(int event, long nanos) {
+        mCounts[event]++;
+        mTotalNanos[event] += nanos;
+        mHistograms[event][bucket(nanos)]++;
+        mEmpty = false;
+    }
+
+    static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Hands the events since the previous flush to the sink, if there were any.
+     */
+    public void flush() {
+        if (mEmpty) {
+            return;
+        }
+        Report report = new Report(mCounts, mTotalNanos, mHistograms);
+        mCounts = new long[EVENT_COUNT];
+        mTotalNanos = new long[EVENT_COUNT];
+        mHistograms = new long[EVENT_COUNT][BUCKET_COUNT];
+        mEmpty = true;
+        mSink.onMetrics(report);
+    }
+
+    public interface Sink {
+        void onMetrics(Report report);
+    }
+
+    /**
+     * Events between two flushes. Events are the constants of {@link ChipsMetrics}.
+     */
+    public static class Report {
+        private final long[] mCounts;
+        private final long[] mTotalNanos;
+        private final long[][] mHistograms;
+
+        Report(long[] counts, long[] totalNanos, long[][] histograms) {
+            mCounts = counts;
+            mTotalNanos = totalNanos;
+            mHistograms = histograms;
+        }
+
+        public long getCount(int event) {
+            return mCounts[event];
+        }
+
+        public long getTotalNanos(int event) {
+            return mTotalNanos[event];
+        }
+
+        /**
+         * @return number of events in each latency bucket, see {@link #BUCKET_COUNT}
+         */
+        public long[] getHistogram(int event) {
+            return mHistograms[event].clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("ChipsMetrics{");
+            for (int event = 0; event < EVENT_COUNT; event++) {
+                if (event > 0) {
+                    builder.append(", ");
+                }
+                builder.append(EVENT_NAMES[event]).append(": ").append(mCounts[event])
+                    .append(" in ").append(mTotalNanos[event] / 1000).append("us");
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
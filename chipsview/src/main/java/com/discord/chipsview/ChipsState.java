@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The chips of a {@link ChipsView} as saved across configuration changes, and their binary form.
+ *
+ * Keys and data are written by the app's {@link ChipsView.StateCodec}, everything else by this
+ * class. The bytes are deflated: labels and photo URIs of many chips repeat a lot, which keeps
+ * hundreds of chips well below the Binder transaction limit.
+ */
+class ChipsState<K, V extends ChipsView.DataContract> {
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_INDELIBLE = 1;
+    private static final int FLAG_PHOTO = 1 << 1;
+
+    // what the widths were measured with, they are only reused if it is the same after restoring
+    float fontScale;
+    float textSize;
+    int chromeWidth;
+
+    int selectedIndex = -1;
+    final List<Entry<K, V>> entries;
+
+    ChipsState(int capacity) {
+        entries = new ArrayList<>(capacity);
+    }
+
+    boolean hasSameMeasure(ChipMeasurer measurer) {
+        return measurer.getFontScale() == fontScale
+            && measurer.getTextPaint().getTextSize() == textSize
+            && measurer.getChromeWidth() == chromeWidth;
+    }
+
+    byte[] write(ChipsView.StateCodec<K, V> codec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entries.size() * 64);
+        DataOutputStream out = new DataOutputStream(
+            new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)));
+        try {
+            out.writeInt(VERSION);
+            out.writeFloat(fontScale);
+            out.writeFloat(textSize);
+            out.writeInt(chromeWidth);
+            out.writeInt(selectedIndex);
+            out.writeInt(entries.size());
+            for (Entry<K, V> entry : entries) {
+                codec.writeKey(entry.key, out);
+                codec.writeData(entry.data, out);
+                out.writeUTF(entry.label);
+                out.writeByte((entry.isIndelible ? FLAG_INDELIBLE : 0) | (entry.photoUri != null ? FLAG_PHOTO : 0));
+                if (entry.photoUri != null) {
+                    out.writeUTF(entry.photoUri);
+                }
+                out.writeInt(entry.width);
+            }
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    static <K, V extends ChipsView.DataContract> ChipsState<K, V> read(byte[] bytes, ChipsView.StateCodec<K, V> codec)
+        throws IOException {
+        DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)));
+        try {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown chips state version " + version);
+            }
+            float fontScale = in.readFloat();
+            float textSize = in.readFloat();
+            int chromeWidth = in.readInt();
+            int selectedIndex = in.readInt();
+            int size = in.readInt();
+
+            ChipsState<K, V> state = new ChipsState<>(size);
+            state.fontScale = fontScale;
+            state.textSize = textSize;
+            state.chromeWidth = chromeWidth;
+            state.selectedIndex = selectedIndex;
+            for (int i = 0; i < size; i++) {
+                K key = codec.readKey(in);
+                V data = codec.readData(in);
+                String label = in.readUTF();
+                int flags = in.readByte();
+                String photoUri = (flags & FLAG_PHOTO) != 0 ? in.readUTF() : null;
+                int width = in.readInt();
+                state.entries.add(new Entry<>(key, data, label, photoUri, (flags & FLAG_INDELIBLE) != 0, width));
+            }
+            return state;
+        } finally {
+            in.close();
+        }
+    }
+
+    static class Entry<K, V> {
+        final K key;
+        final V data;
+        final String label;
+        final String photoUri;
+        final boolean isIndelible;
+        // -1 if it wasn't measured
+        final int width;
+
+        Entry(K key, V data, String label, String photoUri, boolean isIndelible, int width) {
+            this.key = key;
+            this.data = data;
+            this.label = label;
+            this.photoUri = photoUri;
+            this.isIndelible = isIndelible;
+            this.width = width;
+        }
+    }
+}
@@ -19,19 +19,37 @@ package com.discord.chipsview;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.v4.content.ContextCompat;
 import android.text.Editable;
+import android.text.InputFilter;
 import android.text.InputType;
+import android.text.Layout;
+import android.text.NoCopySpan;
 import android.text.Spannable;
+import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.TextPaint;
 import android.text.TextWatcher;
+import android.text.style.LeadingMarginSpan;
+import android.text.style.UpdateLayout;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -41,19 +59,32 @@ import android.view.inputmethod.InputConnectionWrapper;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.ScrollView;
+import android.widget.TextView;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView implements ChipsEditText.InputConnectionWrapperInterface {
 
     private static final String TAG = "ChipsView";
     private static final int CHIP_HEIGHT = 24; // dp
     private static final int SPACING_TOP = 4; // dp
+    private static final int CHIP_SPACING = 4; // dp
     public static final int DEFAULT_VERTICAL_SPACING = 1; // dp
     private static final int DEFAULT_MAX_HEIGHT = -1;
+    private static final int PREFETCH_ROWS = 4;
+    private static final char CHIP_SPAN_PLACEHOLDER = '\uFFFC';
 
     private int mChipsBgRes = R.drawable.drawable_chip_background;
 
@@ -71,17 +102,97 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
     private int mChipsSearchTextColor;
     private float mChipsSearchTextSize;
     private int mChipLayout;
+    private boolean mSpanMode;
+    private boolean mVirtualized;
+    private int mCollapsedMaxRows;
+    private long mBindBudgetMillis;
+    private BindingProgressListener mBindingProgressListener;
 
     private float mDensity;
     private RelativeLayout mChipsContainer;
     private ChipsEditText mEditText;
-    private ChipsVerticalLinearLayout mRootChipsLayout;
-    private LinkedHashMap<K, Chip<K, V>> mChipList = new LinkedHashMap<>();
-    private Object mCurrentEditTextSpan;
+    private ChipsFlowLayout mRootChipsLayout;
+    private ChipStore<K, Chip<K, V>> mChipList = new ChipStore<>();
+    private final FirstLineMarginSpan mFirstLineMarginSpan = new FirstLineMarginSpan();
+    private Chip.ChipParams mChipParams;
+    private ChipMeasurer mChipMeasurer;
+    private AvatarPrefetcher mAvatarPrefetcher;
+    private View mSummaryView;
+    private Chip<K, V> mSelectedChip;
+
+    // span mode: chips as placed in the text by the previous pass, one placeholder character each
+    private List<Chip<K, V>> mSpanChips = new ArrayList<>();
+    private ChipMeasurer mSpanMeasurer;
+    private Drawable mChipsDeleteDrawable;
+    // text changes the view makes itself are not queries
+    private final QueryChangeFilter mQueryChangeFilter = new QueryChangeFilter(new QueryChangeFilter.Listener() {
+        @Override
+        public void onQueryChanged(CharSequence query) {
+            if (mTextChangedListener != null) {
+                mTextChangedListener.onTextChanged(query);
+            }
+            if (mQueryPipeline != null) {
+                mQueryPipeline.onQueryChanged(query.toString());
+            }
+        }
+    });
 
     private ChipAddedListener<V> mChipAddedListener;
     private ChipDeletedListener<V> mChipDeletedListener;
+    private ChipsBatchListener<V> mChipsBatchListener;
     private TextChangedListener<V> mTextChangedListener;
+    private SuggestionIndex<K, V> mSuggestionIndex;
+    // keys of the chips as of the last pass, for searches off the main thread
+    private volatile Set<K> mChipKeys = Collections.emptySet();
+    private QueryPipeline<?> mQueryPipeline;
+    private ChipTokenizer mTokenizer;
+    private TokenResolver<K, V> mTokenResolver;
+    // covers tokens that didn't resolve and were put back, they aren't tokenized again
+    private final Object mUnresolvedSpan = new NoCopySpan.Concrete();
+    private StateCodec<K, V> mStateCodec;
+    private ChipsMetrics mMetrics;
+
+    // relayout requests coalesced into the next frame, see onChipsChanged()
+    private boolean mAttached;
+    private boolean mChipsLayoutScheduled;
+    private boolean mPendingChipsChanged;
+    private final List<Chip<K, V>> mDirtyChips = new ArrayList<>();
+    private boolean mPendingMoveCursor;
+    private boolean mPendingScroll;
+    private final Choreographer.FrameCallback mChipsLayoutCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mChipsLayoutScheduled = false;
+            layoutChips();
+        }
+    };
+
+    // batch state, see beginBatch()
+    private int mBatchDepth;
+    private boolean mBatchClearText;
+    private final List<V> mBatchAdded = new ArrayList<>();
+    private final List<V> mBatchDeleted = new ArrayList<>();
+
+    // work that is moved off the main thread, see setChips()
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Executor mBackgroundExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    private int mSetChipsGeneration;
+    // addChipsAsync() results are applied in call order, even if they are ready in another order
+    private int mNextPreparationId;
+    private int mNextAppliedPreparationId;
+    private final SparseArray<Runnable> mReadyPreparations = new SparseArray<>();
+
+    // the chip view pool is topped up with views inflated in the background once the main thread is idle
+    private boolean mPrewarmScheduled;
+    private int mExpectedChipCount;
+    private final MessageQueue.IdleHandler mPrewarmIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mPrewarmScheduled = false;
+            prewarmChipViews();
+            return false;
+        }
+    };
 
     public ChipsView(Context context) {
         super(context);
@@ -112,6 +223,141 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
         super.onMeasure(widthMeasureSpec, MeasureSpec.makeMeasureSpec(mMaxHeight, MeasureSpec.AT_MOST));
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttached = true;
+        // chip views were given back to the pool on detach
+        onChipsChanged(false);
+        if (mRootChipsLayout != null) {
+            // inflate the first chip views while the first pass runs
+            prewarmChipViews();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // what is still pending is laid out again once attached
+        mAttached = false;
+        if (mChipsLayoutScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mChipsLayoutCallback);
+            mChipsLayoutScheduled = false;
+        }
+        if (mPrewarmScheduled) {
+            Looper.myQueue().removeIdleHandler(mPrewarmIdleHandler);
+            mPrewarmScheduled = false;
+        }
+        if (mRootChipsLayout != null) {
+            mRootChipsLayout.releaseChipViews();
+        }
+        mAvatarPrefetcher.cancelAll();
+        if (mQueryPipeline != null) {
+            mQueryPipeline.cancel();
+        }
+        if (mMetrics != null) {
+            mMetrics.flush();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w != oldw) {
+            // rows are repacked for the new width, the text line has to follow
+            onChipsChanged(false);
+        }
+        updateViewport();
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        updateViewport();
+    }
+
+    /**
+     * In virtualized mode, only chips in rows near the visible part of the view get a view.
+     * The chips themselves and everything done with them stay the same.
+     */
+    public void setVirtualized(boolean virtualized) {
+        mVirtualized = virtualized;
+        if (mRootChipsLayout != null) {
+            updateViewport();
+            mRootChipsLayout.setVirtualized(virtualized);
+        }
+    }
+
+    /**
+     * Creates chip views in slices of at most {@code frameBudgetMillis} per frame, so adding
+     * thousands of chips at once doesn't block the main thread. Chips are added to the view
+     * right away; they show up in order as their views are ready, and {@code listener} hears
+     * how far that is after each slice. 0 turns it off. Has no effect in span mode.
+     */
+    public void setProgressiveBinding(long frameBudgetMillis, BindingProgressListener listener) {
+        mBindBudgetMillis = frameBudgetMillis;
+        mBindingProgressListener = listener;
+        if (mRootChipsLayout != null) {
+            mRootChipsLayout.setProgressiveBinding(frameBudgetMillis, listener);
+        }
+    }
+
+    /**
+     * While the text field doesn't have focus, shows only the first {@code maxRows} rows of chips
+     * and a chip with the number of the others. The hidden chips have no views. Focusing the text
+     * field or tapping the summary shows all chips again. 0 turns it off. Has no effect in span mode.
+     */
+    public void setCollapsedMaxRows(int maxRows) {
+        mCollapsedMaxRows = maxRows;
+        updateCollapsed();
+    }
+
+    private void updateCollapsed() {
+        if (mRootChipsLayout == null) {
+            return;
+        }
+        int maxRows = mCollapsedMaxRows > 0 && !mEditText.hasFocus() ? mCollapsedMaxRows : 0;
+        if (maxRows > 0 && mSummaryView == null) {
+            createSummaryView();
+        }
+        if (mRootChipsLayout.setMaxRows(maxRows)) {
+            onChipsChanged(false);
+        }
+    }
+
+    /**
+     * The summary of collapsed mode is a chip without photo, in the same style.
+     */
+    private void createSummaryView() {
+        Chip.ChipParams params = getChipParams();
+        mSummaryView = View.inflate(getContext(), params.chipLayout, null);
+        mSummaryView.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, (int) (params.chipHeight * params.density)));
+        mSummaryView.setBackground(params.newBackground(getResources(), false));
+        View imageView = mSummaryView.findViewById(R.id.chip_image);
+        if (imageView != null) {
+            imageView.setVisibility(View.GONE);
+        }
+        TextView textView = (TextView) mSummaryView.findViewById(R.id.chip_text);
+        textView.setTextColor(params.chipsTextColor);
+        mSummaryView.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mEditText.requestFocus();
+            }
+        });
+        mRootChipsLayout.setSummaryView(mSummaryView, textView);
+    }
+
+    private void updateViewport() {
+        if (mRootChipsLayout != null) {
+            int top = getScrollY() - mRootChipsLayout.getTop();
+            mRootChipsLayout.setViewport(top, top + getHeight());
+            if (mAttached && !mSpanMode) {
+                updateAvatarPrefetch();
+            }
+        }
+    }
+
     @Override
     protected boolean onRequestFocusInDescendants(int direction, Rect previouslyFocusedRect) {
         return true;
@@ -156,6 +402,12 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
 
             mChipLayout = a.getResourceId(R.styleable.ChipsView_cv_chip_layout, R.layout.view_chip_default);
 
+            mSpanMode = a.getBoolean(R.styleable.ChipsView_cv_span_chips, false);
+
+            mVirtualized = a.getBoolean(R.styleable.ChipsView_cv_virtualized, false);
+
+            mCollapsedMaxRows = a.getInteger(R.styleable.ChipsView_cv_collapsed_max_rows, 0);
+
         } finally {
             a.recycle();
         }
@@ -163,6 +415,7 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
 
     private void init() {
         mDensity = getResources().getDisplayMetrics().density;
+        mAvatarPrefetcher = new AvatarPrefetcher(getResources().getDimensionPixelSize(R.dimen.image_size));
 
         mChipsContainer = new RelativeLayout(getContext());
         addView(mChipsContainer);
@@ -180,24 +433,44 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
 
         final int chipHeightWithPadding = (int) ((CHIP_HEIGHT * mDensity) + mVerticalSpacing);
 
-        RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.MATCH_PARENT, chipHeightWithPadding);
+        // in span mode the chips are part of the text, which wraps over as many lines as needed
+        RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.MATCH_PARENT,
+            mSpanMode ? RelativeLayout.LayoutParams.WRAP_CONTENT : chipHeightWithPadding);
         layoutParams.leftMargin = (int) (5 * mDensity);
         layoutParams.addRule(RelativeLayout.ALIGN_PARENT_BOTTOM, RelativeLayout.TRUE);
         mEditText.setLayoutParams(layoutParams);
         mEditText.setPadding(0, 0, 0, mVerticalSpacing);
         mEditText.setBackgroundColor(Color.argb(0, 0, 0, 0));
         mEditText.setImeOptions(EditorInfo.IME_FLAG_NO_EXTRACT_UI);
-        mEditText.setInputType(InputType.TYPE_CLASS_TEXT);
+        mEditText.setInputType(mSpanMode ? InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE : InputType.TYPE_CLASS_TEXT);
         mEditText.setTextColor(mChipsSearchTextColor);
         mEditText.setTextSize(TypedValue.COMPLEX_UNIT_PX, mChipsSearchTextSize);
+        if (mSpanMode) {
+            mEditText.setFilters(new InputFilter[] { new ChipsTextFilter() });
+            mEditText.setLineSpacing(mVerticalSpacing, 1f);
+        }
 
         mChipsContainer.addView(mEditText);
 
-        mRootChipsLayout = new ChipsVerticalLinearLayout(getContext(), chipHeightWithPadding);
-        mRootChipsLayout.setOrientation(LinearLayout.VERTICAL);
-        mRootChipsLayout.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
-        mRootChipsLayout.setPadding(0, (int) (SPACING_TOP * mDensity), 0, 0);
-        mChipsContainer.addView(mRootChipsLayout);
+        if (!mSpanMode) {
+            mRootChipsLayout = new ChipsFlowLayout(getContext(), chipHeightWithPadding, (int) (CHIP_SPACING * mDensity));
+            mRootChipsLayout.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+            mRootChipsLayout.setPadding(0, (int) (SPACING_TOP * mDensity), 0, 0);
+            mRootChipsLayout.addOnLayoutChangeListener(new OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    // a pass that found the layout without a width waits for it to get one
+                    if (mPendingChipsChanged && right - left != oldRight - oldLeft) {
+                        scheduleChipsLayout();
+                    }
+                }
+            });
+            mRootChipsLayout.setVirtualized(mVirtualized);
+            mRootChipsLayout.setProgressiveBinding(mBindBudgetMillis, mBindingProgressListener);
+            updateCollapsed();
+            mChipsContainer.addView(mRootChipsLayout);
+        }
 
         initListener();
         onChipsChanged(false);
@@ -213,12 +486,32 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
         });
 
         mEditText.addTextChangedListener(new EditTextListener());
+        mEditText.setPasteListener(new ChipsEditText.PasteListener() {
+            @Override
+            public void onPaste() {
+                tokenizeQuery();
+            }
+        });
+        // hardware keys don't go through the input connection
+        mEditText.setOnKeyListener(new OnKeyListener() {
+            @Override
+            public boolean onKey(View v, int keyCode, KeyEvent event) {
+                if (keyCode != KeyEvent.KEYCODE_DEL || !isBackspaceForChips()) {
+                    return false;
+                }
+                if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                    selectOrDeleteLastChip();
+                }
+                return true;
+            }
+        });
         mEditText.setOnFocusChangeListener(new OnFocusChangeListener() {
             @Override
             public void onFocusChange(View v, boolean hasFocus) {
                 if (hasFocus) {
                     ChipsView.this.unselectAllChips();
                 }
+                updateCollapsed();
             }
         });
     }
@@ -229,31 +522,638 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
         }
 
         addChip(displayName, avatarUrl, key, data, false);
-        mEditText.setText("");
-        addLeadingMarginSpan();
+        if (mBatchDepth > 0) {
+            mBatchClearText = true;
+            return;
+        }
+        clearQuery();
     }
 
     public void addChip(String displayName, Uri avatarUrl, K key, V data, boolean isIndelible) {
-        Chip<K, V> chip = new Chip<>(displayName, avatarUrl, key, data, isIndelible, new Chip.ChipParams(mChipsBgColorClicked, mDensity, mChipsBgRes, mChipsBgColor, mChipsTextColor, mChipsPlaceholderResId, mChipsDeleteResId, mChipsTextColorClicked, mChipsColorClicked, mChipsColor, CHIP_HEIGHT, mChipLayout), this);
-        mChipList.put(key, chip);
-        if (mChipAddedListener != null) {
-            mChipAddedListener.onChipAdded(chip.getData());
+        Chip<K, V> chip = new Chip<>(displayName, avatarUrl, key, data, isIndelible, getChipParams(), this);
+        Chip<K, V> replaced = mChipList.put(key, chip);
+        if (replaced != null) {
+            mAvatarPrefetcher.cancel(key);
+            if (replaced == mSelectedChip) {
+                mSelectedChip = null;
+            }
         }
+        notifyChipAdded(chip.getData());
 
         onChipsChanged(true);
-        post(new Runnable() {
+        scrollToBottom();
+    }
+
+    /**
+     * Adds all chips with a single relayout and scroll, skipping keys that are already present.
+     */
+    public void addChips(Collection<ChipEntry<K, V>> entries) {
+        beginBatch();
+        try {
+            for (ChipEntry<K, V> entry : entries) {
+                if (mChipList.containsKey(entry.key)) {
+                    continue; //don't add duplicate chips
+                }
+                addChip(entry.displayName, entry.avatarUrl, entry.key, entry.data, entry.isIndelible);
+                mBatchClearText = true;
+            }
+        } finally {
+            commitBatch();
+        }
+    }
+
+    /**
+     * Like {@link #addChips(Collection)}, but labels are made and measured on the background
+     * executor first, so {@link DataContract#getDisplayString()} must be safe to call from there.
+     * The chips are added once they are ready, in the order of the calls.
+     */
+    public void addChipsAsync(Collection<ChipEntry<K, V>> entries) {
+        final int id = mNextPreparationId++;
+        final List<ChipEntry<K, V>> pending = new ArrayList<>(entries);
+        final ChipMeasurer measurer = getChipMeasurer();
+        final TextPaint textPaint = new TextPaint(measurer.getTextPaint());
+
+        mBackgroundExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                ChipsView.this.fullScroll(View.FOCUS_DOWN);
+                final String[] labels = new String[pending.size()];
+                final int[] widths = new int[pending.size()];
+                for (int i = 0; i < pending.size(); i++) {
+                    ChipEntry<K, V> entry = pending.get(i);
+                    labels[i] = Chip.prepareLabel(entry.displayName, entry.data);
+                    widths[i] = measurer.measure(labels[i], textPaint);
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPreparationReady(id, new Runnable() {
+                            @Override
+                            public void run() {
+                                addPreparedChips(pending, labels, widths, measurer, true);
+                            }
+                        });
+                    }
+                });
             }
         });
     }
 
+    private void onPreparationReady(int id, Runnable apply) {
+        mReadyPreparations.put(id, apply);
+        Runnable next;
+        while ((next = mReadyPreparations.get(mNextAppliedPreparationId)) != null) {
+            mReadyPreparations.remove(mNextAppliedPreparationId++);
+            next.run();
+        }
+    }
+
+    private void addPreparedChips(List<ChipEntry<K, V>> entries, String[] labels, int[] widths, ChipMeasurer measurer,
+                                  boolean clearQuery) {
+        beginBatch();
+        try {
+            boolean added = false;
+            for (int i = 0; i < entries.size(); i++) {
+                ChipEntry<K, V> entry = entries.get(i);
+                if (mChipList.containsKey(entry.key)) {
+                    continue; //don't add duplicate chips
+                }
+                Chip<K, V> chip = new Chip<>(labels[i], entry.avatarUrl, entry.key, entry.data, entry.isIndelible,
+                    getChipParams(), this, measurer, widths[i]);
+                mChipList.put(entry.key, chip);
+                notifyChipAdded(entry.data);
+                added = true;
+            }
+            if (added) {
+                mBatchClearText |= clearQuery;
+                onChipsChanged(true);
+                scrollToBottom();
+            }
+        } finally {
+            commitBatch();
+        }
+    }
+
+    /**
+     * Removes the chips with the given keys with a single relayout.
+     */
+    public void removeChips(Collection<K> keys) {
+        beginBatch();
+        try {
+            for (K key : keys) {
+                Chip<K, V> chip = mChipList.remove(key);
+                if (chip != null) {
+                    mAvatarPrefetcher.cancel(key);
+                    if (chip == mSelectedChip) {
+                        mSelectedChip = null;
+                    }
+                    notifyChipDeleted(chip.getData());
+                    onChipsChanged(true);
+                }
+            }
+        } finally {
+            commitBatch();
+        }
+    }
+
+    /**
+     * Makes the chips match {@code entries}, in that order. The difference to the current chips
+     * is computed on the background executor and applied as one batch: chips that are already
+     * present are kept, only real additions and deletions reach the listeners. A kept chip whose
+     * label, avatar, data or indelible flag differs from its entry is replaced in place, keeping
+     * its selection, without a listener call.
+     * A later call supersedes this one. If the chips change before the result is applied,
+     * the difference is computed again.
+     * New chips are prepared there as well, see {@link #addChipsAsync(Collection)}.
+     */
+    public void setChips(List<ChipEntry<K, V>> entries) {
+        final int generation = ++mSetChipsGeneration;
+        final List<ChipEntry<K, V>> target = new ArrayList<>(entries);
+        final List<Chip<K, V>> current = mChipList.values();
+        final ChipMeasurer measurer = getChipMeasurer();
+        final TextPaint textPaint = new TextPaint(measurer.getTextPaint());
+
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ChipEntry<K, V>> uniqueTarget = new ArrayList<>(target.size());
+                List<K> targetKeys = new ArrayList<>(target.size());
+                Set<K> seen = new HashSet<>();
+                for (ChipEntry<K, V> entry : target) {
+                    if (seen.add(entry.key)) {
+                        uniqueTarget.add(entry);
+                        targetKeys.add(entry.key);
+                    }
+                }
+
+                List<K> currentKeys = new ArrayList<>(current.size());
+                Map<K, Chip<K, V>> currentChips = new HashMap<>(current.size() * 2);
+                for (Chip<K, V> chip : current) {
+                    currentKeys.add(chip.getKey());
+                    currentChips.put(chip.getKey(), chip);
+                }
+
+                final ChipsDiff<K> diff = ChipsDiff.calculate(currentKeys, targetKeys);
+
+                // chips that will be created get their label and width here: new ones, and kept ones whose content changed
+                final Set<K> changed = new HashSet<>();
+                final String[] labels = new String[uniqueTarget.size()];
+                final int[] widths = new int[uniqueTarget.size()];
+                for (int i = 0; i < uniqueTarget.size(); i++) {
+                    ChipEntry<K, V> entry = uniqueTarget.get(i);
+                    String label = Chip.prepareLabel(entry.displayName, entry.data);
+                    Chip<K, V> chip = currentChips.get(entry.key);
+                    if (chip != null) {
+                        if (chip.hasContent(label, entry.avatarUrl, entry.data, entry.isIndelible)) {
+                            continue;
+                        }
+                        changed.add(entry.key);
+                    }
+                    labels[i] = label;
+                    widths[i] = measurer.measure(label, textPaint);
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mSetChipsGeneration) {
+                            return;
+                        }
+                        if (current != mChipList.values()) {
+                            setChips(uniqueTarget);
+                            return;
+                        }
+                        applyChipsDiff(diff, changed, uniqueTarget, labels, widths, measurer);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Executor for work that doesn't need the main thread, like computing {@link #setChips(List)}.
+     * Defaults to {@link AsyncTask#THREAD_POOL_EXECUTOR}.
+     */
+    public void setBackgroundExecutor(Executor executor) {
+        mBackgroundExecutor = executor;
+    }
+
+    private void applyChipsDiff(ChipsDiff<K> diff, Set<K> changed, List<ChipEntry<K, V>> target, String[] labels, int[] widths,
+                                ChipMeasurer measurer) {
+        if (diff.isEmpty() && changed.isEmpty()) {
+            return;
+        }
+
+        beginBatch();
+        try {
+            for (K key : diff.removed) {
+                Chip<K, V> chip = mChipList.remove(key);
+                mAvatarPrefetcher.cancel(key);
+                if (chip == mSelectedChip) {
+                    mSelectedChip = null;
+                }
+                notifyChipDeleted(chip.getData());
+            }
+
+            Map<K, Chip<K, V>> moved = new HashMap<>();
+            for (K key : diff.moved) {
+                moved.put(key, mChipList.remove(key));
+            }
+
+            for (int index : diff.insertIndices) {
+                ChipEntry<K, V> entry = target.get(index);
+                Chip<K, V> chip = moved.get(entry.key);
+                if (chip == null) {
+                    chip = new Chip<>(labels[index], entry.avatarUrl, entry.key, entry.data, entry.isIndelible, getChipParams(), this,
+                        measurer, widths[index]);
+                    notifyChipAdded(chip.getData());
+                } else if (changed.contains(entry.key)) {
+                    chip = replaceChip(chip, entry, labels[index], widths[index], measurer);
+                }
+                mChipList.add(index, entry.key, chip);
+            }
+
+            // chips that kept their place, the order now is the target's
+            for (K key : changed) {
+                if (!moved.containsKey(key)) {
+                    int index = mChipList.indexOf(key);
+                    mChipList.put(key, replaceChip(mChipList.get(key), target.get(index), labels[index], widths[index], measurer));
+                }
+            }
+            onChipsChanged(false);
+        } finally {
+            commitBatch();
+        }
+    }
+
+    /**
+     * @return a new chip for the entry's content, selected if {@code chip} was
+     */
+    private Chip<K, V> replaceChip(Chip<K, V> chip, ChipEntry<K, V> entry, String label, int width, ChipMeasurer measurer) {
+        Chip<K, V> replacement = new Chip<>(label, entry.avatarUrl, entry.key, entry.data, entry.isIndelible, getChipParams(), this,
+            measurer, width);
+        mAvatarPrefetcher.cancel(entry.key);
+        if (chip == mSelectedChip) {
+            mSelectedChip = null;
+            replacement.setSelected(true);
+            if (replacement.isSelected()) {
+                mSelectedChip = replacement;
+            }
+        }
+        return replacement;
+    }
+
+    /**
+     * Moves the chip with the given key to {@code toIndex}, counted without the chip itself.
+     * Does nothing if there is no such chip.
+     */
+    public void moveChip(K key, int toIndex) {
+        if (!mChipList.containsKey(key)) {
+            return;
+        }
+        mChipList.move(key, toIndex);
+        onChipsChanged(false);
+    }
+
+    /**
+     * @return position of the chip with the given key, or -1 if there is none
+     */
+    public int getChipIndex(K key) {
+        return mChipList.indexOf(key);
+    }
+
+    /**
+     * Starts a batch: until the matching {@link #commitBatch()}, listener callbacks and clearing
+     * the text are deferred to the commit, which does them once for the whole batch.
+     * Batches may be nested.
+     */
+    public void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatch()}. The outermost commit notifies the
+     * {@link ChipsBatchListener} once with everything that was added or deleted.
+     * Without a batch listener, the single chip listeners are called for each chip instead.
+     */
+    public void commitBatch() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("commitBatch() called without beginBatch()");
+        }
+        if (--mBatchDepth > 0) {
+            return;
+        }
+
+        if (mBatchClearText) {
+            clearQuery();
+        }
+
+        List<V> added = new ArrayList<>(mBatchAdded);
+        List<V> deleted = new ArrayList<>(mBatchDeleted);
+        mBatchClearText = false;
+        mBatchAdded.clear();
+        mBatchDeleted.clear();
+
+        if (mChipsBatchListener != null) {
+            if (!added.isEmpty() || !deleted.isEmpty()) {
+                mChipsBatchListener.onChipsChanged(Collections.unmodifiableList(added), Collections.unmodifiableList(deleted));
+            }
+        } else {
+            for (V data : added) {
+                notifyChipAdded(data);
+            }
+            for (V data : deleted) {
+                notifyChipDeleted(data);
+            }
+        }
+    }
+
+    private void notifyChipAdded(V data) {
+        if (mBatchDepth > 0) {
+            mBatchAdded.add(data);
+        } else if (mChipAddedListener != null) {
+            mChipAddedListener.onChipAdded(data);
+        }
+    }
+
+    private void notifyChipDeleted(V data) {
+        if (mBatchDepth > 0) {
+            mBatchDeleted.add(data);
+        } else if (mChipDeletedListener != null) {
+            mChipDeletedListener.onChipDeleted(data);
+        }
+    }
+
+    /**
+     * Clears what the user typed, keeping chip spans in span mode.
+     */
+    private void clearQuery() {
+        mQueryChangeFilter.beginInternalChange();
+        try {
+            mEditText.getText().delete(getQueryStart(), mEditText.length());
+        } finally {
+            mQueryChangeFilter.endInternalChange();
+        }
+        if (!mSpanMode) {
+            attachFirstLineMarginSpan();
+        }
+        cancelQuerySearch();
+    }
+
+    /**
+     * Drops the search for text the view took off the query, it is not what the user is looking for.
+     */
+    private void cancelQuerySearch() {
+        if (mQueryPipeline != null) {
+            mQueryPipeline.cancel();
+        }
+    }
+
+    /**
+     * @return offset in the EditText where the user's text starts, behind any chip spans
+     */
+    private int getQueryStart() {
+        return mSpanMode ? mSpanChips.size() : 0;
+    }
+
+    private void scrollToBottom() {
+        mPendingScroll = true;
+        scheduleChipsLayout();
+    }
+
+    /**
+     * @return the chip style, created on first use and then shared by all chips
+     */
+    private Chip.ChipParams getChipParams() {
+        if (mChipParams == null) {
+            mChipParams = new Chip.ChipParams(mChipsBgColorClicked, mDensity, mChipsBgRes, mChipsBgColor, mChipsTextColor, mChipsPlaceholderResId, mChipsDeleteResId, mChipsTextColorClicked, mChipsColorClicked, mChipsColor, CHIP_HEIGHT, mChipLayout);
+        }
+        return mChipParams;
+    }
+
+    /**
+     * @return measurer for the current chip style, rebuilt when the font scale changes
+     */
+    private ChipMeasurer getChipMeasurer() {
+        float fontScale = getResources().getConfiguration().fontScale;
+        if (mChipMeasurer == null || mChipMeasurer.getFontScale() != fontScale) {
+            mChipMeasurer = ChipMeasurer.create(getContext(), getChipParams());
+        }
+        return mChipMeasurer;
+    }
+
+    /**
+     * Starts loading the avatars of the chips in the rows near the viewport and stops those that
+     * scrolled away. Flow mode only, chips in span mode are drawn without one. Only while
+     * virtualized or binding progressively: otherwise every chip's view is bound in the same
+     * pass and requests its avatar itself.
+     */
+    private void updateAvatarPrefetch() {
+        if (!mVirtualized && mBindBudgetMillis <= 0) {
+            mAvatarPrefetcher.cancelAll();
+            return;
+        }
+        List<? extends Chip> chips = mRootChipsLayout.getChipsNearViewport(PREFETCH_ROWS);
+        if (chips != null) {
+            mAvatarPrefetcher.setWindow(chips);
+        }
+    }
+
     public void clear() {
         mChipList.clear();
+        mAvatarPrefetcher.cancelAll();
+        mSelectedChip = null;
         onChipsChanged(true);
     }
 
+    /**
+     * Searches for what the user types: once typing pauses for {@code debounceMillis}, the query
+     * is searched with {@code searcher} on {@code executor}, unless it is the same as the previous
+     * one. A new query cancels the search that is still running, only the result for the latest
+     * query reaches {@code listener}, on the main thread. Changes the view makes to the text on its
+     * own are not queries. Pass a null searcher to stop.
+     */
+    public <R> void setQuerySearcher(long debounceMillis, Executor executor, QuerySearcher<R> searcher, QueryResultListener<R> listener) {
+        if (mQueryPipeline != null) {
+            mQueryPipeline.cancel();
+        }
+        mQueryPipeline = searcher != null ? new QueryPipeline<>(debounceMillis, executor, searcher, listener) : null;
+    }
+
+    /**
+     * Turns text the user commits or pastes at the end of the query into chips. Everything up to
+     * the last separator is split into tokens, which {@code resolver} resolves on the background
+     * executor; the resolved ones are added in one batch, what the user typed since stays. Tokens
+     * that don't resolve are put back in front of the query and are not tokenized again. Pass a
+     * null tokenizer to stop.
+     *
+     * @throws IllegalArgumentException if there is a tokenizer but no resolver
+     */
+    public void setTokenizer(ChipTokenizer tokenizer, TokenResolver<K, V> resolver) {
+        if (tokenizer != null && resolver == null) {
+            throw new IllegalArgumentException("tokenizer without a resolver");
+        }
+        mTokenizer = tokenizer;
+        mTokenResolver = tokenizer != null ? resolver : null;
+    }
+
+    /**
+     * Counts and times relayouts, label measuring, chip view inflation and avatar binding,
+     * see {@link ChipsMetrics}. Null, the default, turns it off. The metrics report to their sink
+     * once per flush interval while events come in and when the view is detached, or whenever
+     * {@link ChipsMetrics#flush()} is called.
+     */
+    public void setMetrics(ChipsMetrics metrics) {
+        if (mMetrics != null && mMetrics != metrics) {
+            mMetrics.flush();
+        }
+        mMetrics = metrics;
+    }
+
+    ChipsMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Saves the chips with the view's instance state, {@code codec} writes and reads their keys
+     * and data. Set it before the state is restored, in the same place the view is set up.
+     * Restoring replaces the chips without calling the chip listeners, the app saw them added
+     * before the view was recreated.
+     */
+    public void setStateCodec(StateCodec<K, V> codec) {
+        mStateCodec = codec;
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Parcelable superState = super.onSaveInstanceState();
+        if (mStateCodec == null) {
+            return superState;
+        }
+
+        ChipMeasurer measurer = getChipMeasurer();
+        ChipsState<K, V> state = new ChipsState<>(mChipList.size());
+        state.fontScale = measurer.getFontScale();
+        state.textSize = measurer.getTextPaint().getTextSize();
+        state.chromeWidth = measurer.getChromeWidth();
+        for (Chip<K, V> chip : mChipList) {
+            if (chip == mSelectedChip) {
+                state.selectedIndex = state.entries.size();
+            }
+            Uri photoUri = chip.getPhotoUri();
+            state.entries.add(new ChipsState.Entry<>(chip.getKey(), chip.getData(), chip.getLabel(),
+                photoUri != null ? photoUri.toString() : null, chip.isIndelible(), chip.getCachedWidth(measurer)));
+        }
+
+        try {
+            return new SavedState(superState, state.write(mStateCodec));
+        } catch (IOException e) {
+            Log.e(TAG, "Saving chips failed", e);
+            return superState;
+        }
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (mStateCodec == null) {
+            return;
+        }
+
+        try {
+            restoreChips(ChipsState.read(savedState.chips, mStateCodec));
+        } catch (IOException e) {
+            Log.e(TAG, "Restoring chips failed", e);
+        }
+    }
+
+    /**
+     * Replaces the chips with the saved ones, without notifying the listeners. Labels come
+     * prepared and widths measured, unless the chip style's measure changed.
+     */
+    private void restoreChips(ChipsState<K, V> state) {
+        ChipMeasurer measurer = getChipMeasurer();
+        boolean sameMeasure = state.hasSameMeasure(measurer);
+
+        mChipList.clear();
+        mAvatarPrefetcher.cancelAll();
+        mSelectedChip = null;
+
+        for (ChipsState.Entry<K, V> entry : state.entries) {
+            if (mChipList.containsKey(entry.key)) {
+                continue; //don't add duplicate chips
+            }
+            boolean measured = sameMeasure && entry.width >= 0;
+            Chip<K, V> chip = new Chip<>(entry.label, entry.photoUri != null ? Uri.parse(entry.photoUri) : null,
+                entry.key, entry.data, entry.isIndelible, getChipParams(), this, measured ? measurer : null,
+                measured ? entry.width : 0);
+            mChipList.put(entry.key, chip);
+        }
+
+        if (state.selectedIndex >= 0 && state.selectedIndex < mChipList.size()) {
+            Chip<K, V> selected = mChipList.getAt(state.selectedIndex);
+            selected.setSelected(true);
+            if (selected.isSelected()) {
+                mSelectedChip = selected;
+            }
+        }
+        onChipsChanged(true);
+    }
+
+    /**
+     * Candidates for {@link #getSuggestions(String, int)}. The app fills and updates the index.
+     */
+    public void setSuggestionIndex(SuggestionIndex<K, V> suggestionIndex) {
+        mSuggestionIndex = suggestionIndex;
+        updateChipKeys();
+    }
+
+    public SuggestionIndex<K, V> getSuggestionIndex() {
+        return mSuggestionIndex;
+    }
+
+    /**
+     * @return up to {@code limit} candidates from the suggestion index matching {@code query},
+     * best first, without those that already are chips. Can be called from any thread, off the
+     * main thread chips added since the last relayout may still be suggested.
+     */
+    public List<V> getSuggestions(String query, int limit) {
+        SuggestionIndex<K, V> suggestionIndex = mSuggestionIndex;
+        if (suggestionIndex == null) {
+            return Collections.emptyList();
+        }
+        if (Looper.myLooper() == Looper.getMainLooper() && mPendingChipsChanged) {
+            updateChipKeys();
+        }
+        final Set<K> chipKeys = mChipKeys;
+        return suggestionIndex.search(query, limit, new SuggestionIndex.KeyFilter<K>() {
+            @Override
+            public boolean exclude(K key) {
+                return chipKeys.contains(key);
+            }
+        });
+    }
+
+    /**
+     * Publishes the current chip keys for {@link #getSuggestions(String, int)}, main thread only.
+     */
+    private void updateChipKeys() {
+        if (mSuggestionIndex == null) {
+            mChipKeys = Collections.emptySet();
+            return;
+        }
+        Set<K> keys = new HashSet<>();
+        for (Chip<K, V> chip : mChipList) {
+            keys.add(chip.getKey());
+        }
+        mChipKeys = Collections.unmodifiableSet(keys);
+    }
+
     public void setChipAddedListener(final ChipAddedListener<V> chipAddedListener) {
         mChipAddedListener = chipAddedListener;
     }
@@ -262,69 +1162,239 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
         mChipDeletedListener = chipDeletedListener;
     }
 
+    /**
+     * Set to receive a single callback per {@link #commitBatch()} instead of
+     * one {@link ChipAddedListener} / {@link ChipDeletedListener} call per chip.
+     */
+    public void setChipsBatchListener(final ChipsBatchListener<V> chipsBatchListener) {
+        mChipsBatchListener = chipsBatchListener;
+    }
+
     public void setTextChangedListener(final TextChangedListener<V> textChangedListener) {
         mTextChangedListener = textChangedListener;
     }
     /**
-     * rebuild all chips and place them right
+     * Marks the chips as changed. The relayout runs once on the next frame, however many
+     * requests come in before it; {@code moveCursor} is kept if any of them asked for it.
      */
     private void onChipsChanged(final boolean moveCursor) {
-        ChipsVerticalLinearLayout.TextLineParams textLineParams = mRootChipsLayout.onChipsChanged(mChipList.values());
+        mPendingChipsChanged = true;
+        mPendingMoveCursor |= moveCursor;
+        scheduleChipsLayout();
+    }
+
+    /**
+     * Called by a chip whose state changed, only its view is rebound on the next frame.
+     */
+    void onChipDirty(Chip<K, V> chip) {
+        mDirtyChips.add(chip);
+        scheduleChipsLayout();
+    }
+
+    /**
+     * Only while attached, views inflated for a detached view's activity may never be used.
+     */
+    private void prewarmChipViews() {
+        if (mAttached) {
+            ChipViewPool.prewarm(getContext(), getChipParams().chipLayout, mExpectedChipCount, mBackgroundExecutor);
+        }
+    }
+
+    /**
+     * Starts inflating views for about {@code count} chips in the background right away, up to
+     * the size of the shared view pool. Call it before the view is attached when the first
+     * screen will show many chips, so its first layout pass takes the inflated views instead of
+     * inflating them on the main thread. Chips in span mode have no views.
+     */
+    public void setExpectedChipCount(int count) {
+        mExpectedChipCount = count;
+        if (mRootChipsLayout != null) {
+            ChipViewPool.prewarm(getContext(), getChipParams().chipLayout, count, mBackgroundExecutor);
+        }
+    }
+
+    /**
+     * Sizes the pool's stock from the views in use and tops it up once the main thread is idle.
+     */
+    private void onChipViewsInUse(int count) {
+        if (count == 0) {
+            return;
+        }
+        ChipViewPool.noteInUse(getChipParams().chipLayout, count);
+        if (mAttached && !mPrewarmScheduled) {
+            mPrewarmScheduled = true;
+            Looper.myQueue().addIdleHandler(mPrewarmIdleHandler);
+        }
+    }
 
-        // if null then run another layout pass
-        if (textLineParams == null) {
+    /**
+     * Posts the relayout for the next frame. While detached nothing is posted,
+     * {@link #onAttachedToWindow()} picks up the pending changes.
+     */
+    private void scheduleChipsLayout() {
+        if (mAttached && !mChipsLayoutScheduled) {
+            mChipsLayoutScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mChipsLayoutCallback);
+        }
+    }
+
+    private void layoutChips() {
+        ChipsMetrics metrics = mMetrics;
+        if (metrics == null) {
+            performLayoutChips();
+            return;
+        }
+        long start = metrics.begin(ChipsMetrics.RELAYOUT);
+        try {
+            performLayoutChips();
+        } finally {
+            metrics.end(ChipsMetrics.RELAYOUT, start);
+        }
+    }
+
+    /**
+     * place the chips and move the text line behind them
+     */
+    private void performLayoutChips() {
+        if (mPendingChipsChanged) {
+            updateChipKeys();
+        }
+        if (mSpanMode) {
+            if (mPendingChipsChanged) {
+                updateChipSpans();
+            }
+            // selection state is drawn straight from the chips
+            mEditText.invalidate();
+        } else if (mPendingChipsChanged) {
+            updateViewport();
+            ChipsFlowLayout.TextLineParams textLineParams = mRootChipsLayout.onChipsChanged(mChipList.values(),
+                mChipList.getUnchangedPrefix(), mChipList.getUnchangedSuffix(), getChipMeasurer());
+
+            // if null the layout has no width yet, the pass runs again once it is laid out
+            if (textLineParams == null) {
+                return;
+            }
+            mChipList.markUnchanged();
+            setFirstLineMargin(textLineParams.lineMargin);
+            onChipViewsInUse(mRootChipsLayout.getChildCount());
+            updateAvatarPrefetch();
+        }
+        mPendingChipsChanged = false;
+
+        // chips that are placed were bound above, this only rebinds those whose state changed
+        for (Chip<K, V> chip : mDirtyChips) {
+            chip.bindView();
+        }
+        mDirtyChips.clear();
+
+        boolean moveCursor = mPendingMoveCursor;
+        boolean scroll = mPendingScroll;
+        mPendingMoveCursor = false;
+        mPendingScroll = false;
+
+        if (moveCursor) {
+            mEditText.setSelection(mEditText.length());
+        }
+        if (scroll) {
             post(new Runnable() {
                 @Override
                 public void run() {
-                    ChipsView.this.onChipsChanged(moveCursor);
+                    ChipsView.this.fullScroll(View.FOCUS_DOWN);
                 }
             });
-            return;
         }
+    }
 
-        addLeadingMarginSpan(textLineParams.lineMargin);
-        if (moveCursor) {
-            mEditText.setSelection(mEditText.length());
+    /**
+     * Span mode: replaces the placeholders of chips that changed since the previous pass
+     * with new {@link ChipSpan}s, the user's text behind them is left as is.
+     */
+    private void updateChipSpans() {
+        List<Chip<K, V>> chips = mChipList.values();
+        ChipMeasurer measurer = getChipMeasurer();
+
+        int oldSize = mSpanChips.size();
+        int newSize = chips.size();
+        int prefix = 0;
+        int suffix = 0;
+        // spans measure with the measurer they were created with, rebuild all of them for a new one
+        if (measurer == mSpanMeasurer) {
+            prefix = Math.min(mChipList.getUnchangedPrefix(), Math.min(oldSize, newSize));
+            suffix = Math.min(mChipList.getUnchangedSuffix(), Math.min(oldSize, newSize) - prefix);
+            while (prefix < oldSize && prefix < newSize && mSpanChips.get(prefix) == chips.get(prefix)) {
+                prefix++;
+            }
+            while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && mSpanChips.get(oldSize - 1 - suffix) == chips.get(newSize - 1 - suffix)) {
+                suffix++;
+            }
+        }
+        mSpanMeasurer = measurer;
+
+        if (mChipsDeleteDrawable == null) {
+            mChipsDeleteDrawable = getChipParams().newDeleteDrawable(getResources());
+        }
+
+        SpannableStringBuilder inserted = new SpannableStringBuilder();
+        for (int i = prefix; i < newSize - suffix; i++) {
+            inserted.append(CHIP_SPAN_PLACEHOLDER);
+            ChipSpan span = new ChipSpan(chips.get(i), measurer, (int) (CHIP_HEIGHT * mDensity), (int) (CHIP_SPACING * mDensity), mChipsDeleteDrawable);
+            inserted.setSpan(span, i - prefix, i - prefix + 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+
+        mQueryChangeFilter.beginInternalChange();
+        try {
+            mEditText.getText().replace(prefix, oldSize - suffix, inserted);
+        } finally {
+            mQueryChangeFilter.endInternalChange();
         }
+        mSpanChips = chips;
+        mChipList.markUnchanged();
+        mEditText.setChipsTextLength(newSize);
     }
 
-    private void addLeadingMarginSpan(int margin) {
+    /**
+     * Moves the start of the EditText's first line behind the chips on the text line. The span is
+     * set again in place, which only reflows the first paragraph; the text, the IME's composing
+     * state and the text listeners are left alone.
+     */
+    private void setFirstLineMargin(int margin) {
         Spannable spannable = mEditText.getText();
-        if (mCurrentEditTextSpan != null) {
-            spannable.removeSpan(mCurrentEditTextSpan);
+        if (mFirstLineMarginSpan.margin == margin && spannable.getSpanStart(mFirstLineMarginSpan) == 0) {
+            return;
         }
-        mCurrentEditTextSpan = new android.text.style.LeadingMarginSpan.LeadingMarginSpan2.Standard(margin, 0);
-        spannable.setSpan(mCurrentEditTextSpan, 0, 0, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
-
-        mEditText.setText(spannable);
+        mFirstLineMarginSpan.margin = margin;
+        spannable.setSpan(mFirstLineMarginSpan, 0, 0, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
+        // the first line may wrap differently and change the EditText's height
+        mEditText.requestLayout();
     }
 
-    private void addLeadingMarginSpan() {
+    /**
+     * Puts the margin span back if replacing the text dropped it.
+     */
+    private void attachFirstLineMarginSpan() {
         Spannable spannable = mEditText.getText();
-        if (mCurrentEditTextSpan != null) {
-            spannable.removeSpan(mCurrentEditTextSpan);
+        if (spannable.getSpanStart(mFirstLineMarginSpan) != 0) {
+            spannable.setSpan(mFirstLineMarginSpan, 0, 0, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
         }
-        spannable.setSpan(mCurrentEditTextSpan, 0, 0, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
+    }
 
-        mEditText.setText(spannable);
+    /**
+     * @return whether backspace goes to the chips: in span mode when the cursor is at the start of
+     * the query, as the chip placeholders in front of it can't be edited; in flow mode, as before,
+     * only when the query is empty
+     */
+    private boolean isBackspaceForChips() {
+        if (mSpanMode) {
+            return mEditText.getSelectionEnd() <= getQueryStart();
+        }
+        return mEditText.length() == getQueryStart();
     }
 
     private void selectOrDeleteLastChip() {
-        if (mChipList.size() > 0) {
-            try {
-                //get last chip
-                Iterator<Map.Entry<K, Chip<K, V>>> iter = mChipList.entrySet().iterator();
-                Chip<K, V> lastChip = null;
-                while (iter.hasNext()) {
-                    lastChip = iter.next().getValue();
-                }
-
-                if (lastChip != null) {
-                    onChipInteraction(lastChip);
-                }
-            } catch (IndexOutOfBoundsException e) {
-                Log.e(TAG, "Out of bounds", e);
-            }
+        Chip<K, V> lastChip = mChipList.getLast();
+        if (lastChip != null) {
+            onChipInteraction(lastChip);
         }
     }
 
@@ -332,23 +1402,24 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
         unselectChipsExcept(chip);
         if (chip.isSelected()) {
             mChipList.remove(chip.getKey());
-            if (mChipDeletedListener != null) {
-                mChipDeletedListener.onChipDeleted(chip.getData());
-            }
+            mAvatarPrefetcher.cancel(chip.getKey());
+            mSelectedChip = null;
+            notifyChipDeleted(chip.getData());
             onChipsChanged(true);
         } else {
             chip.setSelected(true);
-            onChipsChanged(false);
+            if (chip.isSelected()) {
+                mSelectedChip = chip;
+            }
         }
     }
 
     private void unselectChipsExcept(Chip rootChip) {
-        for (Chip chip : mChipList.values()) {
-            if (chip != rootChip) {
-                chip.setSelected(false);
-            }
+        // at most one chip is selected at a time
+        if (mSelectedChip != null && mSelectedChip != rootChip) {
+            mSelectedChip.setSelected(false);
+            mSelectedChip = null;
         }
-        onChipsChanged(false);
     }
 
     private void unselectAllChips() {
@@ -365,29 +1436,160 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
     }
 
     public void setText(String text) {
-        mEditText.setText(text);
+        mEditText.getText().replace(getQueryStart(), mEditText.length(), text);
+    }
+
+    /**
+     * Takes the complete tokens off the query, see {@link #setTokenizer}.
+     */
+    private void tokenizeQuery() {
+        if (mTokenizer == null) {
+            return;
+        }
+        Editable text = mEditText.getText();
+        // editing inside the query is left alone
+        if (mEditText.getSelectionStart() != text.length() || mEditText.getSelectionEnd() != text.length()) {
+            return;
+        }
+        int tokensStart = Math.max(getQueryStart(), text.getSpanEnd(mUnresolvedSpan));
+        int separator = mTokenizer.lastSeparator(text, tokensStart, text.length());
+        if (separator < 0) {
+            return;
+        }
+
+        String committed = text.subSequence(tokensStart, separator).toString();
+        int leftoverStart = separator + 1;
+        while (leftoverStart < text.length() && Character.isWhitespace(text.charAt(leftoverStart))) {
+            leftoverStart++;
+        }
+        mQueryChangeFilter.beginInternalChange();
+        try {
+            text.delete(tokensStart, leftoverStart);
+        } finally {
+            mQueryChangeFilter.endInternalChange();
+        }
+        cancelQuerySearch();
+        resolveTokens(committed);
+    }
+
+    private void resolveTokens(final String committed) {
+        final int id = mNextPreparationId++;
+        final ChipTokenizer tokenizer = mTokenizer;
+        final TokenResolver<K, V> resolver = mTokenResolver;
+        final ChipMeasurer measurer = getChipMeasurer();
+        final TextPaint textPaint = new TextPaint(measurer.getTextPaint());
+
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<String> tokens = tokenizer.split(committed);
+                List<ChipEntry<K, V>> resolved = null;
+                if (!tokens.isEmpty()) {
+                    try {
+                        resolved = resolver.resolve(tokens);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Resolving tokens failed", e);
+                    }
+                }
+
+                final List<ChipEntry<K, V>> entries = new ArrayList<>(tokens.size());
+                final StringBuilder unresolved = new StringBuilder();
+                for (int i = 0; i < tokens.size(); i++) {
+                    ChipEntry<K, V> entry = resolved != null && i < resolved.size() ? resolved.get(i) : null;
+                    if (entry != null) {
+                        entries.add(entry);
+                    } else {
+                        unresolved.append(tokens.get(i)).append(tokenizer.getDelimiter());
+                    }
+                }
+                final String[] labels = new String[entries.size()];
+                final int[] widths = new int[entries.size()];
+                for (int i = 0; i < entries.size(); i++) {
+                    ChipEntry<K, V> entry = entries.get(i);
+                    labels[i] = Chip.prepareLabel(entry.displayName, entry.data);
+                    widths[i] = measurer.measure(labels[i], textPaint);
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPreparationReady(id, new Runnable() {
+                            @Override
+                            public void run() {
+                                addPreparedChips(entries, labels, widths, measurer, false);
+                                if (unresolved.length() > 0) {
+                                    putBackUnresolved(unresolved);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Inserts tokens that didn't resolve in front of the query and extends {@link #mUnresolvedSpan}
+     * over them, so the separators between them don't make them tokens again.
+     */
+    private void putBackUnresolved(CharSequence unresolved) {
+        Editable text = mEditText.getText();
+        int queryStart = getQueryStart();
+        mQueryChangeFilter.beginInternalChange();
+        try {
+            text.insert(queryStart, unresolved);
+        } finally {
+            mQueryChangeFilter.endInternalChange();
+        }
+        int end = Math.max(queryStart + unresolved.length(), text.getSpanEnd(mUnresolvedSpan));
+        text.setSpan(mUnresolvedSpan, queryStart, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
     }
 
     public String getText() {
-        return mEditText.getText().toString();
+        Editable text = mEditText.getText();
+        return text.subSequence(getQueryStart(), text.length()).toString();
     }
 
     public void prune(final Collection<?> pruneData) {
+        // a list's contains() is linear, look keys up in a set
+        Set<?> keep = pruneData instanceof Set ? (Set<?>) pruneData : new HashSet<>(pruneData);
         boolean changed = false;
-        Iterator<Map.Entry<K, Chip<K, V>>> iter = mChipList.entrySet().iterator();
+        Iterator<Chip<K, V>> iter = mChipList.iterator();
         while (iter.hasNext()) {
-            Map.Entry<K, Chip<K, V>> entry = iter.next();
-            if (!pruneData.contains(entry.getKey())) {
+            Chip<K, V> chip = iter.next();
+            if (!keep.contains(chip.getKey())) {
                 iter.remove();
+                mAvatarPrefetcher.cancel(chip.getKey());
                 changed = true;
             }
         }
 
         if (changed) {
+            if (mSelectedChip != null && mChipList.get(mSelectedChip.getKey()) != mSelectedChip) {
+                mSelectedChip = null;
+            }
             onChipsChanged(true);
         }
     }
 
+    /**
+     * Indents the first line of its paragraph. Implements {@link UpdateLayout}, so setting it
+     * again after changing the margin reflows the text it covers.
+     */
+    private static class FirstLineMarginSpan implements LeadingMarginSpan, UpdateLayout {
+        int margin;
+
+        @Override
+        public int getLeadingMargin(boolean first) {
+            return first ? margin : 0;
+        }
+
+        @Override
+        public void drawLeadingMargin(Canvas c, Paint p, int x, int dir, int top, int baseline, int bottom,
+                                      CharSequence text, int start, int end, boolean first, Layout layout) {
+        }
+    }
+
     private class EditTextListener implements TextWatcher {
 
         @Override
@@ -398,9 +1600,26 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
 
         @Override
         public void afterTextChanged(Editable s) {
-            if (mTextChangedListener != null) {
-                mTextChangedListener.onTextChanged(s);
+            if (!mSpanMode) {
+                attachFirstLineMarginSpan();
+            }
+            mQueryChangeFilter.onTextChanged(s.subSequence(getQueryStart(), s.length()));
+        }
+    }
+
+    /**
+     * Span mode: rejects edits of the chip placeholders that don't come from the chips changing.
+     * Chips are only removed through the chip list, see {@link #selectOrDeleteLastChip()}.
+     */
+    private class ChipsTextFilter implements InputFilter {
+
+        @Override
+        public CharSequence filter(CharSequence source, int start, int end, Spanned dest, int dstart, int dend) {
+            if (mQueryChangeFilter.isInternalChange() || dstart >= getQueryStart()) {
+                return null;
             }
+            // keep what is there
+            return dest.subSequence(dstart, dend);
         }
     }
 
@@ -412,12 +1631,16 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
 
         @Override
         public boolean commitText(CharSequence text, int newCursorPosition) {
-            return super.commitText(text, newCursorPosition);
+            boolean committed = super.commitText(text, newCursorPosition);
+            if (committed && mTokenizer != null) {
+                tokenizeQuery();
+            }
+            return committed;
         }
 
         @Override
         public boolean sendKeyEvent(KeyEvent event) {
-            if (mEditText.length() == 0) {
+            if (isBackspaceForChips()) {
                 if (event.getAction() == KeyEvent.ACTION_DOWN) {
                     if (event.getKeyCode() == KeyEvent.KEYCODE_DEL) {
                         selectOrDeleteLastChip();
@@ -431,7 +1654,7 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
         @Override
         public boolean deleteSurroundingText(int beforeLength, int afterLength) {
             // magic: in latest Android, deleteSurroundingText(1, 0) will be called for backspace
-            if (mEditText.length() == 0 && beforeLength == 1 && afterLength == 0) {
+            if (isBackspaceForChips() && beforeLength == 1 && afterLength == 0) {
                 // backspace
                 return sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DEL))
                         && sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DEL));
@@ -450,11 +1673,110 @@ public class ChipsView<K, V extends ChipsView.DataContract> extends ScrollView i
         void onChipDeleted(V data);
     }
 
+    public interface BindingProgressListener {
+        /**
+         * @param bound chips that have a view, of the {@code total} that should have one
+         */
+        void onChipsBound(int bound, int total);
+    }
+
+    public interface ChipsBatchListener <V extends DataContract> {
+        void onChipsChanged(List<V> added, List<V> deleted);
+    }
+
     public interface TextChangedListener <V extends DataContract> {
         void onTextChanged(CharSequence text);
     }
 
+    /**
+     * Runs on the executor given to {@link #setQuerySearcher}. A search that is superseded is
+     * interrupted, long searches should check {@link Thread#interrupted()}.
+     */
+    public interface QuerySearcher<R> {
+        R search(String query) throws Exception;
+    }
+
+    public interface QueryResultListener<R> {
+        void onQueryResult(String query, R result);
+    }
+
+    /**
+     * Runs on the background executor, see {@link #setTokenizer}.
+     */
+    public interface TokenResolver<K, V extends DataContract> {
+        /**
+         * @return an entry for each token, in the same order, null for tokens that don't resolve
+         */
+        List<ChipEntry<K, V>> resolve(List<String> tokens) throws Exception;
+    }
+
+    /**
+     * Writes and reads keys and data for {@link #setStateCodec}. Keep it compact, the saved
+     * state of all chips goes through a Binder transaction.
+     */
+    public interface StateCodec<K, V extends DataContract> {
+        void writeKey(K key, DataOutput out) throws IOException;
+
+        K readKey(DataInput in) throws IOException;
+
+        void writeData(V data, DataOutput out) throws IOException;
+
+        V readData(DataInput in) throws IOException;
+    }
+
     public interface DataContract {
         String getDisplayString();
     }
+
+    static class SavedState extends BaseSavedState {
+        final byte[] chips;
+
+        SavedState(Parcelable superState, byte[] chips) {
+            super(superState);
+            this.chips = chips;
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            chips = in.createByteArray();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeByteArray(chips);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    public static class ChipEntry<K, V extends DataContract> {
+        public final String displayName;
+        public final Uri avatarUrl;
+        public final K key;
+        public final V data;
+        public final boolean isIndelible;
+
+        public ChipEntry(String displayName, Uri avatarUrl, K key, V data) {
+            this(displayName, avatarUrl, key, data, false);
+        }
+
+        public ChipEntry(String displayName, Uri avatarUrl, K key, V data, boolean isIndelible) {
+            this.displayName = displayName;
+            this.avatarUrl = avatarUrl;
+            this.key = key;
+            this.data = data;
+            this.isIndelible = isIndelible;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.discord.chipsview;
 
 import android.net.Uri;
 import android.support.annotation.Nullable;
+import android.util.LruCache;
 import android.widget.ImageView;
 
 import com.facebook.drawee.backends.pipeline.Fresco;
@@ -14,34 +15,63 @@ import com.facebook.imagepipeline.request.ImageRequestBuilder;
 public class ImageUtil {
 
     private static final int SMALL_IMAGE_MAX_SIZE = 200;
+    private static final int MAX_CACHED_REQUESTS = 128;
+
+    // requests are immutable, chips showing the same avatar at the same size share one
+    private static final LruCache<String, ImageRequest> sRequestCache = new LruCache<>(MAX_CACHED_REQUESTS);
 
     public static void setImage(ImageView view, @Nullable String url, int widthAndHeight) {
         setImage(view, url, widthAndHeight, widthAndHeight);
     }
 
+    /**
+     * Binds the view to the image. Nothing is done if it is already bound to the same url at
+     * the same size, a view's binding is kept in its {@code R.id.chip_image_binding} tag.
+     */
     public static void setImage(ImageView view, @Nullable String url, int width, int height) {
 
         DraweeView draweeView = (DraweeView) view;
 
+        // setting a drawable directly, like the delete icon, replaces the image and drops the controller
+        boolean showsImage = draweeView.getDrawable() == draweeView.getTopLevelDrawable();
+
         if (url == null) {
-            draweeView.setController(null);
+            if (draweeView.getTag(R.id.chip_image_binding) != null || draweeView.hasController() || !showsImage) {
+                draweeView.setTag(R.id.chip_image_binding, null);
+                draweeView.setController(null);
+            }
             return;
         }
 
-        // Create URI.
-        Uri uri = Uri.parse(url);
-
-        // Create an image controller builder.
-        PipelineDraweeControllerBuilder builder = Fresco.newDraweeControllerBuilder();
+        String binding = getRequestKey(url, width, height);
+        if (binding.equals(draweeView.getTag(R.id.chip_image_binding)) && draweeView.hasController() && showsImage) {
+            return;
+        }
 
-        // Provide some s5andard config.
-        builder = builder.setOldController(draweeView.getController()).setUri(uri).setAutoPlayAnimations(true);
+        // Generate the final controller with image request.
+        PipelineDraweeControllerBuilder builder = Fresco.newDraweeControllerBuilder()
+            .setOldController(draweeView.getController())
+            .setAutoPlayAnimations(true)
+            .setImageRequest(getCachedImageRequest(url, width, height));
+        draweeView.setController(builder.build());
+        draweeView.setTag(R.id.chip_image_binding, binding);
+    }
 
-        // Get image request.
-        ImageRequestBuilder request = getImageRequest(url, width, height);
+    /**
+     * @return the request for the url at the given size, built once and then reused
+     */
+    static ImageRequest getCachedImageRequest(String url, int width, int height) {
+        String key = getRequestKey(url, width, height);
+        ImageRequest request = sRequestCache.get(key);
+        if (request == null) {
+            request = getImageRequest(url, width, height).build();
+            sRequestCache.put(key, request);
+        }
+        return request;
+    }
 
-        // Generate the final controller with image request.
-        ((DraweeView) view).setController(builder.setImageRequest(request.build()).build());
+    private static String getRequestKey(String url, int width, int height) {
+        return width + "x" + height + " " + url;
     }
 
     /**
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded pool of items that can only be reused where they fit, see {@link Key}. Once full,
+ * the oldest item is dropped. The Android side lives in {@link ChipViewPool}.
+ */
+class KeyedPool<T> {
+
+    /**
+     * Where an item fits: the activity (or other context) it was made for, and a fingerprint of
+     * the theme it was made with. Keys with the same owner and an equal fingerprint match.
+     */
+    static final class Key {
+        final Object owner;
+        private final int[] mTheme;
+
+        Key(Object owner, int[] theme) {
+            this.owner = owner;
+            mTheme = theme;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return owner == other.owner && Arrays.equals(mTheme, other.mTheme);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + Arrays.hashCode(mTheme);
+        }
+    }
+
+    private final int mMaxSize;
+    private final List<Key> mKeys = new ArrayList<>();
+    private final List<T> mItems = new ArrayList<>();
+
+    KeyedPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return the item released last for a matching key, or null
+     */
+    public T acquire(Key key) {
+        for (int i = mItems.size() - 1; i >= 0; i--) {
+            if (mKeys.get(i).equals(key)) {
+                mKeys.remove(i);
+                return mItems.remove(i);
+            }
+        }
+        return null;
+    }
+
+    public void release(Key key, T item) {
+        if (mItems.size() >= mMaxSize) {
+            mKeys.remove(0);
+            mItems.remove(0);
+        }
+        mKeys.add(key);
+        mItems.add(item);
+    }
+
+    public int count(Key key) {
+        int count = 0;
+        for (Key pooled : mKeys) {
+            if (pooled.equals(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops the items of every key with this owner.
+     */
+    public void removeOwner(Object owner) {
+        for (int i = mItems.size() - 1; i >= 0; i--) {
+            if (mKeys.get(i).owner == owner) {
+                mKeys.remove(i);
+                mItems.remove(i);
+            }
+        }
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+}
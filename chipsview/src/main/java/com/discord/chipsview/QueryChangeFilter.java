@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+/**
+ * Tells the user's edits of the query from the edits the view makes itself, like clearing the
+ * query after a chip is added or taking tokenized text off it. Only the user's edits reach the
+ * listener. Main thread only.
+ */
+class QueryChangeFilter {
+
+    interface Listener {
+        void onQueryChanged(CharSequence query);
+    }
+
+    private final Listener mListener;
+    private int mInternalDepth;
+
+    QueryChangeFilter(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Text changes until the matching {@link #endInternalChange()} are the view's own.
+     * Calls nest, end each in a finally block.
+     */
+    public void beginInternalChange() {
+        mInternalDepth++;
+    }
+
+    public void endInternalChange() {
+        if (mInternalDepth == 0) {
+            throw new IllegalStateException("endInternalChange() without beginInternalChange()");
+        }
+        mInternalDepth--;
+    }
+
+    public boolean isInternalChange() {
+        return mInternalDepth > 0;
+    }
+
+    public void onTextChanged(CharSequence query) {
+        if (mInternalDepth == 0) {
+            mListener.onQueryChanged(query);
+        }
+    }
+}
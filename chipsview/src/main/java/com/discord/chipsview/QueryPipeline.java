@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Turns query text changes into searches: a change starts a search once no other change came
+ * in for the debounce window, a query equal to the previous one is dropped, and a new search
+ * cancels the running one. Only the result of the latest search is delivered, on the main thread.
+ *
+ * Call from the main thread.
+ */
+class QueryPipeline<R> {
+
+    private static final String TAG = "QueryPipeline";
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final long mDebounceMillis;
+    private final Executor mExecutor;
+    private final ChipsView.QuerySearcher<R> mSearcher;
+    private final ChipsView.QueryResultListener<R> mListener;
+
+    private String mPendingQuery;
+    private String mLastQuery;
+    private FutureTask<R> mRunningSearch;
+    private int mGeneration;
+
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatch(mPendingQuery);
+        }
+    };
+
+    QueryPipeline(long debounceMillis, Executor executor, ChipsView.QuerySearcher<R> searcher, ChipsView.QueryResultListener<R> listener) {
+        mDebounceMillis = debounceMillis;
+        mExecutor = executor;
+        mSearcher = searcher;
+        mListener = listener;
+    }
+
+    public void onQueryChanged(String query) {
+        mPendingQuery = query;
+        mMainHandler.removeCallbacks(mDispatch);
+        mMainHandler.postDelayed(mDispatch, mDebounceMillis);
+    }
+
+    /**
+     * Drops the pending query and the running search. The next query is searched even if it
+     * equals the last one.
+     */
+    public void cancel() {
+        mMainHandler.removeCallbacks(mDispatch);
+        cancelRunningSearch();
+        mLastQuery = null;
+    }
+
+    private void cancelRunningSearch() {
+        mGeneration++;
+        if (mRunningSearch != null) {
+            mRunningSearch.cancel(true);
+            mRunningSearch = null;
+        }
+    }
+
+    private void dispatch(final String query) {
+        if (query.equals(mLastQuery)) {
+            return;
+        }
+        mLastQuery = query;
+
+        cancelRunningSearch();
+        final int generation = mGeneration;
+        FutureTask<R> search = new FutureTask<R>(new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                return mSearcher.search(query);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                final FutureTask<R> task = this;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(generation, query, task);
+                    }
+                });
+            }
+        };
+        mRunningSearch = search;
+        mExecutor.execute(search);
+    }
+
+    private void deliver(int generation, String query, FutureTask<R> search) {
+        // a newer query started since, or this search was cancelled
+        if (generation != mGeneration || search.isCancelled()) {
+            return;
+        }
+        mRunningSearch = null;
+
+        R result;
+        try {
+            result = search.get();
+        } catch (InterruptedException e) {
+            return;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Search for query failed", e.getCause());
+            return;
+        }
+        mListener.onQueryResult(query, result);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2016 Doodle AG.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.discord.chipsview;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Local index of suggestion candidates, searched by their display strings.
+ *
+ * Display strings are folded to lower case without diacritics. Every word start is kept in a
+ * sorted map for prefix matches, and every three character sequence in a map of postings for
+ * matches inside words. Results rank matches at the start of the display string first, then
+ * at the start of a word, then anywhere; shorter display strings first within each.
+ *
+ * Thread safe, so it can be filled and searched off the main thread.
+ */
+public class SuggestionIndex<K, V extends ChipsView.DataContract> {
+
+    private static final int NGRAM = 3;
+
+    private static final int MATCH_START = 0;
+    private static final int MATCH_WORD = 1;
+    private static final int MATCH_INSIDE = 2;
+
+    private final Map<K, Entry<K, V>> mEntries = new HashMap<>();
+    // text from each word start to the end of the display string -> entries
+    private final TreeMap<String, List<Entry<K, V>>> mWordStarts = new TreeMap<>();
+    // packed three character sequence -> entries containing it
+    private final Map<Long, List<Entry<K, V>>> mNgrams = new HashMap<>();
+
+    private int mSequence;
+    private int mSearchStamp;
+
+    /**
+     * Adds a candidate, replacing the one with the same key.
+     */
+    public synchronized void add(K key, V data) {
+        remove(key);
+
+        Entry<K, V> entry = new Entry<>(key, data, normalize(data.getDisplayString()), mSequence++);
+        mEntries.put(key, entry);
+
+        String text = entry.text;
+        for (int i = 0; i < text.length(); i++) {
+            if (isWordStart(text, i)) {
+                getOrCreate(mWordStarts, text.substring(i)).add(entry);
+            }
+        }
+        for (int i = 0; i + NGRAM <= text.length(); i++) {
+            List<Entry<K, V>> postings = getOrCreate(mNgrams, ngram(text, i));
+            // a sequence that repeats in a string is only listed once
+            if (postings.isEmpty() || postings.get(postings.size() - 1) != entry) {
+                postings.add(entry);
+            }
+        }
+    }
+
+    public synchronized void addAll(Map<K, V> candidates) {
+        for (Map.Entry<K, V> candidate : candidates.entrySet()) {
+            add(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    public synchronized void remove(K key) {
+        Entry<K, V> entry = mEntries.remove(key);
+        if (entry == null) {
+            return;
+        }
+
+        String text = entry.text;
+        for (int i = 0; i < text.length(); i++) {
+            if (isWordStart(text, i)) {
+                removeFrom(mWordStarts, text.substring(i), entry);
+            }
+        }
+        for (int i = 0; i + NGRAM <= text.length(); i++) {
+            removeFrom(mNgrams, ngram(text, i), entry);
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mWordStarts.clear();
+        mNgrams.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public List<V> search(String query, int limit) {
+        return search(query, limit, null);
+    }
+
+    /**
+     * @param filter keys it excludes are left out of the results, may be null
+     * @return up to {@code limit} best matches, best first
+     */
+    public synchronized List<V> search(String query, int limit, KeyFilter<? super K> filter) {
+        String normalized = normalize(query).trim();
+        if (normalized.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // entries already offered in this search carry its stamp
+        int stamp = ++mSearchStamp;
+        PriorityQueue<Match<K, V>> best = new PriorityQueue<>(limit + 1, Collections.reverseOrder(MATCH_ORDER));
+
+        NavigableMap<String, List<Entry<K, V>>> prefixed =
+            mWordStarts.subMap(normalized, true, normalized + Character.MAX_VALUE, false);
+        // an entry can match at its start and at a later word, the first pass takes the start
+        // matches so a word match seen earlier in key order doesn't shadow them
+        for (int pass = MATCH_START; pass <= MATCH_WORD; pass++) {
+            if (pass == MATCH_WORD && isFull(best, limit, MATCH_START)) {
+                break;
+            }
+            for (Map.Entry<String, List<Entry<K, V>>> wordStart : prefixed.entrySet()) {
+                for (Entry<K, V> entry : wordStart.getValue()) {
+                    int match = wordStart.getKey().length() == entry.text.length() ? MATCH_START : MATCH_WORD;
+                    if (match == pass && entry.stamp != stamp) {
+                        entry.stamp = stamp;
+                        offer(best, limit, entry, match, filter);
+                    }
+                }
+            }
+        }
+
+        // matches inside words rank last, they can only make it if there's room
+        if (normalized.length() >= NGRAM && !isFull(best, limit, MATCH_WORD)) {
+            List<Entry<K, V>> candidates = getRarestNgramPostings(normalized);
+            for (Entry<K, V> entry : candidates) {
+                if (entry.stamp != stamp && entry.text.contains(normalized)) {
+                    entry.stamp = stamp;
+                    offer(best, limit, entry, MATCH_INSIDE, filter);
+                }
+            }
+        }
+
+        List<Match<K, V>> sorted = new ArrayList<>(best);
+        Collections.sort(sorted, MATCH_ORDER);
+        List<V> results = new ArrayList<>(sorted.size());
+        for (Match<K, V> match : sorted) {
+            results.add(match.entry.data);
+        }
+        return results;
+    }
+
+    private List<Entry<K, V>> getRarestNgramPostings(String normalized) {
+        List<Entry<K, V>> rarest = null;
+        for (int i = 0; i + NGRAM <= normalized.length(); i++) {
+            List<Entry<K, V>> postings = mNgrams.get(ngram(normalized, i));
+            if (postings == null) {
+                return Collections.emptyList();
+            }
+            if (rarest == null || postings.size() < rarest.size()) {
+                rarest = postings;
+            }
+        }
+        return rarest;
+    }
+
+    private static <K, V> void offer(PriorityQueue<Match<K, V>> best, int limit, Entry<K, V> entry, int match,
+                                     KeyFilter<? super K> filter) {
+        if (filter != null && filter.exclude(entry.key)) {
+            return;
+        }
+        Match<K, V> candidate = new Match<>(entry, match);
+        if (best.size() < limit) {
+            best.add(candidate);
+        } else if (MATCH_ORDER.compare(candidate, best.peek()) < 0) {
+            best.poll();
+            best.add(candidate);
+        }
+    }
+
+    /**
+     * @return whether there are {@code limit} matches, all at least as good as {@code match}
+     */
+    private static boolean isFull(PriorityQueue<? extends Match<?, ?>> best, int limit, int match) {
+        return best.size() >= limit && best.peek().match <= match;
+    }
+
+    /**
+     * @return {@code text} in lower case, without diacritics
+     */
+    static String normalize(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return text.toLowerCase(Locale.ROOT);
+        }
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(c);
+            }
+        }
+        return folded.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isWordStart(String text, int index) {
+        // the start counts whatever it is, so "#general" matches "#ge" at its start
+        return index == 0 || Character.isLetterOrDigit(text.charAt(index))
+            && !Character.isLetterOrDigit(text.charAt(index - 1));
+    }
+
+    private static Long ngram(String text, int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+    }
+
+    private static <T, E> List<E> getOrCreate(Map<T, List<E>> map, T key) {
+        List<E> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    private static <T, E> void removeFrom(Map<T, List<E>> map, T key, E value) {
+        List<E> list = map.get(key);
+        if (list != null) {
+            // identity, entries don't override equals()
+            list.remove(value);
+            if (list.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    public interface KeyFilter<K> {
+        /**
+         * @return true to leave the candidate with this key out of the results
+         */
+        boolean exclude(K key);
+    }
+
+    private static final Comparator<Match<?, ?>> MATCH_ORDER = new Comparator<Match<?, ?>>() {
+        @Override
+        public int compare(Match<?, ?> a, Match<?, ?> b) {
+            if (a.match != b.match) {
+                return a.match < b.match ? -1 : 1;
+            }
+            int lengthA = a.entry.text.length();
+            int lengthB = b.entry.text.length();
+            if (lengthA != lengthB) {
+                return lengthA < lengthB ? -1 : 1;
+            }
+            return a.entry.sequence < b.entry.sequence ? -1 : (a.entry.sequence == b.entry.sequence ? 0 : 1);
+        }
+    };
+
+    private static class Entry<K, V> {
+        final K key;
+        final V data;
+        final String text;
+        final int sequence;
+        int stamp;
+
+        Entry(K key, V data, String text, int sequence) {
+            this.key = key;
+            this.data = data;
+            this.text = text;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Match<K, V> {
+        final Entry<K, V> entry;
+        final int match;
+
+        Match(Entry<K, V> entry, int match) {
+            this.entry = entry;
+            this.match = match;
+        }
+    }
+}
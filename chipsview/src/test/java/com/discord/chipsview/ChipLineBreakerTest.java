@@ -0,0 +1,145 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChipLineBreakerTest {
+
+    private static final int SPACING = 4;
+
+    @Test
+    public void packsChipsIntoRows() throws Exception {
+        ChipLineBreaker breaker = newBreaker(100, 40, 40, 40, 10);
+
+        assertTrue(breaker.reflow());
+        assertEquals(2, breaker.getRowCount());
+        assertEquals(0, breaker.getRow(1));
+        assertEquals(44, breaker.getOffset(1));
+        assertEquals(1, breaker.getRow(2));
+        assertEquals(0, breaker.getOffset(2));
+        assertEquals(2, breaker.getRowStart(1));
+        assertEquals(4, breaker.getRowEnd(1));
+
+        // 100 - 58 leaves enough room for the text line
+        assertEquals(1, breaker.getTextRow());
+        assertEquals(58, breaker.getTextMargin());
+    }
+
+    @Test
+    public void textLineMovesToNextRowWhenFull() throws Exception {
+        ChipLineBreaker breaker = newBreaker(100, 40, 45);
+
+        assertTrue(breaker.reflow());
+        assertEquals(1, breaker.getRowCount());
+        assertEquals(1, breaker.getTextRow());
+        assertEquals(0, breaker.getTextMargin());
+        assertEquals(2, breaker.getLineCount());
+    }
+
+    @Test
+    public void emptyHasSingleTextLine() throws Exception {
+        ChipLineBreaker breaker = newBreaker(100);
+
+        assertTrue(breaker.reflow());
+        assertEquals(0, breaker.getRowCount());
+        assertEquals(0, breaker.getTextRow());
+        assertEquals(0, breaker.getTextMargin());
+        assertEquals(1, breaker.getLineCount());
+    }
+
+    @Test
+    public void cannotReflowWithoutWidth() throws Exception {
+        ChipLineBreaker breaker = newBreaker(0, 10);
+
+        assertFalse(breaker.reflow());
+    }
+
+    @Test
+    public void appendOnlyReflowsLastRow() throws Exception {
+        ChipLineBreaker breaker = newBreaker(100, 40, 40, 40, 40, 40);
+        breaker.reflow();
+
+        breaker.splice(5, 0, 1);
+        breaker.setWidth(5, 10);
+        breaker.reflow();
+
+        assertEquals(2, breaker.getFirstChangedRow());
+        assertEquals(3, breaker.getRowCount());
+        assertEquals(2, breaker.getRow(5));
+    }
+
+    @Test
+    public void unchangedReflowReportsNoChangedRows() throws Exception {
+        ChipLineBreaker breaker = newBreaker(100, 40, 40, 40);
+        breaker.reflow();
+        breaker.reflow();
+
+        assertEquals(breaker.getLineCount(), breaker.getFirstChangedRow());
+    }
+
+    @Test
+    public void incrementalMatchesFullReflow() throws Exception {
+        Random random = new Random(42);
+        ChipLineBreaker incremental = new ChipLineBreaker(SPACING);
+        incremental.setAvailableWidth(300);
+
+        for (int step = 0; step < 500; step++) {
+            int size = incremental.size();
+            int index = random.nextInt(size + 1);
+            int remove = index < size ? random.nextInt(Math.min(3, size - index) + 1) : 0;
+            int insert = random.nextInt(3);
+            incremental.splice(index, remove, insert);
+            for (int i = index; i < index + insert; i++) {
+                incremental.setWidth(i, 20 + random.nextInt(120));
+            }
+            assertTrue(incremental.reflow());
+
+            ChipLineBreaker full = new ChipLineBreaker(SPACING);
+            full.setAvailableWidth(300);
+            full.splice(0, 0, incremental.size());
+            for (int i = 0; i < incremental.size(); i++) {
+                full.setWidth(i, incremental.getWidth(i));
+            }
+            full.reflow();
+
+            assertEquals(full.getRowCount(), incremental.getRowCount());
+            for (int i = 0; i < full.size(); i++) {
+                assertEquals(full.getRow(i), incremental.getRow(i));
+                assertEquals(full.getOffset(i), incremental.getOffset(i));
+            }
+            assertEquals(full.getTextRow(), incremental.getTextRow());
+            assertEquals(full.getTextMargin(), incremental.getTextMargin());
+        }
+    }
+
+    @Test
+    public void collapsedCountLeavesRoomForSummary() throws Exception {
+        // rows: [40, 40] [40, 40] [40]
+        ChipLineBreaker breaker = newBreaker(100, 40, 40, 40, 40, 40);
+        assertTrue(breaker.reflow());
+        assertEquals(3, breaker.getRowCount());
+
+        assertEquals(5, breaker.getCollapsedCount(3, 20));
+        // 44 + 44 + 12 fits behind the second chip of row 1
+        assertEquals(4, breaker.getCollapsedCount(2, 12));
+        assertEquals(88, breaker.getOffsetBehind(3));
+        // a wider summary pushes the last chip of row 1 out
+        assertEquals(3, breaker.getCollapsedCount(2, 13));
+        assertEquals(44, breaker.getOffsetBehind(2));
+        // a summary that doesn't fit behind any chip takes the whole row
+        assertEquals(2, breaker.getCollapsedCount(2, 80));
+    }
+
+    private static ChipLineBreaker newBreaker(int availableWidth, int... widths) {
+        ChipLineBreaker breaker = new ChipLineBreaker(SPACING);
+        breaker.setAvailableWidth(availableWidth);
+        breaker.splice(0, 0, widths.length);
+        for (int i = 0; i < widths.length; i++) {
+            breaker.setWidth(i, widths[i]);
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,151 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChipStoreTest {
+
+    @Test
+    public void keepsInsertionOrder() throws Exception {
+        ChipStore<String, String> store = newStore("a", "b", "c");
+
+        assertEquals(3, store.size());
+        assertEquals("a", store.getFirst());
+        assertEquals("c", store.getLast());
+        assertEquals("b", store.getAt(1));
+        assertEquals(2, store.indexOf("c"));
+        assertEquals(-1, store.indexOf("x"));
+    }
+
+    @Test
+    public void putReplacesInPlace() throws Exception {
+        ChipStore<String, String> store = newStore("a", "b", "c");
+
+        assertEquals("b", store.put("b", "B"));
+        assertEquals(1, store.indexOf("b"));
+        assertEquals("B", store.get("b"));
+    }
+
+    @Test
+    public void insertsRemovesAndMovesByPosition() throws Exception {
+        ChipStore<String, String> store = newStore("a", "b", "c");
+
+        store.add(1, "x", "x");
+        assertEquals("[a, x, b, c]", store.values().toString());
+
+        assertEquals("a", store.removeAt(0));
+        assertEquals("x", store.getFirst());
+
+        store.move("c", 0);
+        assertEquals("[c, x, b]", store.values().toString());
+        assertEquals("b", store.getLast());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateKeys() throws Exception {
+        newStore("a").add(0, "a", "a");
+    }
+
+    @Test
+    public void snapshotIsReusedUntilChanged() throws Exception {
+        ChipStore<String, String> store = newStore("a", "b");
+
+        List<String> snapshot = store.values();
+        assertSame(snapshot, store.values());
+
+        store.remove("a");
+        assertNotSame(snapshot, store.values());
+        assertEquals("[a, b]", snapshot.toString());
+    }
+
+    @Test
+    public void iteratorRemoves() throws Exception {
+        ChipStore<String, String> store = newStore("a", "b", "c", "d");
+
+        Iterator<String> iter = store.iterator();
+        while (iter.hasNext()) {
+            if (!iter.next().equals("c")) {
+                iter.remove();
+            }
+        }
+        assertEquals("[c]", store.values().toString());
+        assertEquals("c", store.getFirst());
+        assertEquals("c", store.getLast());
+    }
+
+    @Test
+    public void tracksUnchangedPrefixAndSuffix() throws Exception {
+        ChipStore<String, String> store = newStore("a", "b", "c", "d", "e");
+        store.markUnchanged();
+
+        store.remove("b");
+        store.add(2, "x", "x");
+
+        // a, c, x, d, e: "a" and "d", "e" are untouched
+        assertEquals(1, store.getUnchangedPrefix());
+        assertEquals(2, store.getUnchangedSuffix());
+
+        store.markUnchanged();
+        assertEquals(5, store.getUnchangedPrefix());
+        assertEquals(0, store.getUnchangedSuffix());
+    }
+
+    @Test
+    public void matchesListUnderRandomOperations() throws Exception {
+        Random random = new Random(7);
+        ChipStore<Integer, Integer> store = new ChipStore<>();
+        List<Integer> expected = new ArrayList<>();
+        List<Integer> marked = new ArrayList<>();
+        store.markUnchanged();
+
+        for (int step = 0; step < 5000; step++) {
+            int op = random.nextInt(4);
+            if (op == 0 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                store.add(index, step, step);
+                expected.add(index, step);
+            } else if (op == 1) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), store.removeAt(index));
+            } else if (op == 2) {
+                Integer key = expected.get(random.nextInt(expected.size()));
+                int to = random.nextInt(expected.size());
+                store.move(key, to);
+                expected.remove(key);
+                expected.add(to, key);
+            } else {
+                Integer key = expected.get(random.nextInt(expected.size()));
+                assertEquals(expected.indexOf(key), store.indexOf(key));
+            }
+
+            assertEquals(expected, store.values());
+            assertEquals(expected.isEmpty() ? null : expected.get(expected.size() - 1), store.getLast());
+
+            int prefix = store.getUnchangedPrefix();
+            int suffix = store.getUnchangedSuffix();
+            assertTrue(prefix + suffix <= Math.min(marked.size(), expected.size()));
+            assertEquals(marked.subList(0, prefix), expected.subList(0, prefix));
+            assertEquals(marked.subList(marked.size() - suffix, marked.size()),
+                expected.subList(expected.size() - suffix, expected.size()));
+
+            if (random.nextInt(10) == 0) {
+                store.markUnchanged();
+                marked = new ArrayList<>(expected);
+            }
+        }
+    }
+
+    private static ChipStore<String, String> newStore(String... keys) {
+        ChipStore<String, String> store = new ChipStore<>();
+        for (String key : keys) {
+            store.put(key, key);
+        }
+        return store;
+    }
+}
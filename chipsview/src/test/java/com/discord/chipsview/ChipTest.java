@@ -0,0 +1,45 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChipTest {
+
+    private static final ChipsView.DataContract DATA = new ChipsView.DataContract() {
+        @Override
+        public String getDisplayString() {
+            return "from data";
+        }
+    };
+
+    @Test
+    public void prepareLabelFallsBackToData() throws Exception {
+        assertEquals("label", Chip.prepareLabel("label", DATA));
+        assertEquals("from data", Chip.prepareLabel(null, DATA));
+    }
+
+    @Test
+    public void prepareLabelCutsOffLongLabels() throws Exception {
+        String label = Chip.prepareLabel("0123456789012345678901234567890123456789", DATA);
+
+        assertEquals("012345678901234567890123456789...", label);
+    }
+
+    @Test
+    public void prepareLabelKeepsSurrogatePairsWhole() throws Exception {
+        // the emoji's high surrogate is the 30th char
+        String label = Chip.prepareLabel("01234567890123456789012345678\uD83D\uDE00 and more", DATA);
+
+        assertEquals("01234567890123456789012345678...", label);
+    }
+
+    @Test
+    public void hasContentComparesPreparedLabel() throws Exception {
+        Chip<String, ChipsView.DataContract> chip = new Chip<>("label", null, "key", DATA, false, null, null);
+
+        assertTrue(chip.hasContent(Chip.prepareLabel("label", DATA), null, DATA, false));
+        assertFalse(chip.hasContent(Chip.prepareLabel("renamed", DATA), null, DATA, false));
+        assertFalse(chip.hasContent(Chip.prepareLabel("label", DATA), null, DATA, true));
+    }
+}
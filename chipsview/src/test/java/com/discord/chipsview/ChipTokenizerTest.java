@@ -0,0 +1,37 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ChipTokenizerTest {
+
+    @Test
+    public void splitTrimsAndDropsEmptyTokens() throws Exception {
+        ChipTokenizer tokenizer = new ChipTokenizer();
+        assertEquals(Arrays.asList("a@x.com", "b c", "d"), tokenizer.split(" a@x.com,, b c ;\n d "));
+        assertEquals(Collections.<String>emptyList(), tokenizer.split(" , ;\n"));
+        assertEquals(Collections.<String>emptyList(), tokenizer.split(""));
+    }
+
+    @Test
+    public void customSeparators() throws Exception {
+        ChipTokenizer tokenizer = new ChipTokenizer(" |");
+        assertEquals(Arrays.asList("a,b", "c", "d"), tokenizer.split("a,b c|d"));
+        assertEquals("  ", tokenizer.getDelimiter());
+        assertEquals("|", new ChipTokenizer("|,").getDelimiter().trim());
+    }
+
+    @Test
+    public void lastSeparatorWithinRange() throws Exception {
+        ChipTokenizer tokenizer = new ChipTokenizer();
+        String text = "a,b;c";
+        assertEquals(3, tokenizer.lastSeparator(text, 0, text.length()));
+        assertEquals(1, tokenizer.lastSeparator(text, 0, 3));
+        assertEquals(-1, tokenizer.lastSeparator(text, 2, 3));
+        assertEquals(-1, tokenizer.lastSeparator("abc", 0, 3));
+    }
+}
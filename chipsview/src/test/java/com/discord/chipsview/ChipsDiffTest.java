@@ -0,0 +1,92 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChipsDiffTest {
+
+    @Test
+    public void sameOrderIsEmpty() throws Exception {
+        ChipsDiff<String> diff = ChipsDiff.calculate(list("a", "b", "c"), list("a", "b", "c"));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void removesAndInserts() throws Exception {
+        ChipsDiff<String> diff = ChipsDiff.calculate(list("a", "b", "c"), list("a", "x", "c"));
+
+        assertEquals(list("b"), diff.removed);
+        assertTrue(diff.moved.isEmpty());
+        assertArrayEquals(new int[] {1}, diff.insertIndices);
+    }
+
+    @Test
+    public void movesOnlyWhatIsOutOfOrder() throws Exception {
+        ChipsDiff<String> diff = ChipsDiff.calculate(list("a", "b", "c", "d"), list("d", "a", "b", "c"));
+
+        assertTrue(diff.removed.isEmpty());
+        assertEquals(list("d"), diff.moved);
+        assertArrayEquals(new int[] {0}, diff.insertIndices);
+    }
+
+    @Test
+    public void appliesToTargetUnderRandomChanges() throws Exception {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            List<Integer> current = new ArrayList<>();
+            int size = random.nextInt(40);
+            for (int i = 0; i < size; i++) {
+                current.add(i);
+            }
+            List<Integer> target = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                if (random.nextInt(3) > 0) {
+                    target.add(i);
+                }
+            }
+            Collections.shuffle(target.subList(0, random.nextInt(target.size() + 1)), random);
+
+            ChipsDiff<Integer> diff = ChipsDiff.calculate(current, target);
+
+            List<Integer> result = new ArrayList<>(current);
+            result.removeAll(diff.removed);
+            result.removeAll(diff.moved);
+            for (int index : diff.insertIndices) {
+                result.add(index, target.get(index));
+            }
+            assertEquals(target, result);
+
+            int kept = current.size() - diff.removed.size();
+            assertEquals(target.size() - kept + diff.moved.size(), diff.insertIndices.length);
+        }
+    }
+
+    @Test
+    public void findsLongestIncreasingSubsequence() throws Exception {
+        boolean[] lis = ChipsDiff.longestIncreasingSubsequence(new int[] {3, 1, 2, 5, 4, 6}, 6);
+
+        int length = 0;
+        int last = -1;
+        int[] values = {3, 1, 2, 5, 4, 6};
+        for (int i = 0; i < lis.length; i++) {
+            if (lis[i]) {
+                assertTrue(values[i] > last);
+                last = values[i];
+                length++;
+            }
+        }
+        assertEquals(4, length);
+    }
+
+    private static List<String> list(String... values) {
+        return Arrays.asList(values);
+    }
+}
@@ -0,0 +1,81 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChipsMetricsTest {
+
+    @Test
+    public void bucketsArePowersOfTwoMicros() throws Exception {
+        assertEquals(0, ChipsMetrics.bucket(0));
+        assertEquals(0, ChipsMetrics.bucket(999));
+        assertEquals(1, ChipsMetrics.bucket(1000));
+        assertEquals(2, ChipsMetrics.bucket(2000));
+        assertEquals(2, ChipsMetrics.bucket(3999));
+        assertEquals(3, ChipsMetrics.bucket(4000));
+        assertEquals(ChipsMetrics.BUCKET_COUNT - 1, ChipsMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void flushReportsAndResets() throws Exception {
+        final List<ChipsMetrics.Report> reports = new ArrayList<>();
+        ChipsMetrics metrics = new ChipsMetrics(new ChipsMetrics.Sink() {
+            @Override
+            public void onMetrics(ChipsMetrics.Report report) {
+                reports.add(report);
+            }
+        }, false);
+
+        metrics.flush();
+        assertTrue(reports.isEmpty());
+
+        metrics.record(ChipsMetrics.RELAYOUT, 1500);
+        metrics.record(ChipsMetrics.RELAYOUT, 2500);
+        metrics.record(ChipsMetrics.INFLATE, 500);
+        metrics.flush();
+
+        assertEquals(1, reports.size());
+        ChipsMetrics.Report report = reports.get(0);
+        assertEquals(2, report.getCount(ChipsMetrics.RELAYOUT));
+        assertEquals(4000, report.getTotalNanos(ChipsMetrics.RELAYOUT));
+        assertEquals(1, report.getHistogram(ChipsMetrics.RELAYOUT)[1]);
+        assertEquals(1, report.getHistogram(ChipsMetrics.RELAYOUT)[2]);
+        assertEquals(1, report.getCount(ChipsMetrics.INFLATE));
+        assertEquals(0, report.getCount(ChipsMetrics.MEASURE));
+
+        metrics.flush();
+        assertEquals(1, reports.size());
+
+        long start = metrics.begin(ChipsMetrics.MEASURE);
+        metrics.end(ChipsMetrics.MEASURE, start);
+        metrics.flush();
+        assertEquals(1, reports.get(1).getCount(ChipsMetrics.MEASURE));
+        assertEquals(0, reports.get(1).getCount(ChipsMetrics.RELAYOUT));
+    }
+
+    @Test
+    public void flushesOnceTheIntervalIsOver() throws Exception {
+        final List<ChipsMetrics.Report> reports = new ArrayList<>();
+        ChipsMetrics metrics = new ChipsMetrics(new ChipsMetrics.Sink() {
+            @Override
+            public void onMetrics(ChipsMetrics.Report report) {
+                reports.add(report);
+            }
+        }, false, 50);
+
+        metrics.end(ChipsMetrics.RELAYOUT, System.nanoTime());
+        assertTrue(reports.isEmpty());
+
+        Thread.sleep(60);
+        metrics.end(ChipsMetrics.RELAYOUT, System.nanoTime());
+        assertEquals(1, reports.size());
+        assertEquals(2, reports.get(0).getCount(ChipsMetrics.RELAYOUT));
+
+        metrics.flush();
+        assertEquals(1, reports.size());
+    }
+}
@@ -0,0 +1,96 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ChipsStateTest {
+
+    private static class Data implements ChipsView.DataContract {
+        final String name;
+
+        Data(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getDisplayString() {
+            return name;
+        }
+    }
+
+    private static final ChipsView.StateCodec<Long, Data> CODEC = new ChipsView.StateCodec<Long, Data>() {
+        @Override
+        public void writeKey(Long key, DataOutput out) throws IOException {
+            out.writeLong(key);
+        }
+
+        @Override
+        public Long readKey(DataInput in) throws IOException {
+            return in.readLong();
+        }
+
+        @Override
+        public void writeData(Data data, DataOutput out) throws IOException {
+            out.writeUTF(data.name);
+        }
+
+        @Override
+        public Data readData(DataInput in) throws IOException {
+            return new Data(in.readUTF());
+        }
+    };
+
+    @Test
+    public void roundTrip() throws Exception {
+        ChipsState<Long, Data> state = new ChipsState<>(3);
+        state.fontScale = 1.15f;
+        state.textSize = 42f;
+        state.chromeWidth = 96;
+        state.selectedIndex = 1;
+        state.entries.add(new ChipsState.Entry<>(7L, new Data("Ada"), "Ada", "https://x/7.png", false, 120));
+        state.entries.add(new ChipsState.Entry<>(3L, new Data("B\u00e9a"), "B\u00e9a \ud83d\ude00", null, true, -1));
+        state.entries.add(new ChipsState.Entry<>(5L, new Data("Cy"), "Cy", "https://x/5.png", true, 90));
+
+        ChipsState<Long, Data> read = ChipsState.read(state.write(CODEC), CODEC);
+
+        assertEquals(1.15f, read.fontScale, 0f);
+        assertEquals(42f, read.textSize, 0f);
+        assertEquals(96, read.chromeWidth);
+        assertEquals(1, read.selectedIndex);
+        assertEquals(3, read.entries.size());
+        for (int i = 0; i < 3; i++) {
+            ChipsState.Entry<Long, Data> expected = state.entries.get(i);
+            ChipsState.Entry<Long, Data> actual = read.entries.get(i);
+            assertEquals(expected.key, actual.key);
+            assertEquals(expected.data.name, actual.data.name);
+            assertEquals(expected.label, actual.label);
+            assertEquals(expected.photoUri, actual.photoUri);
+            assertEquals(expected.isIndelible, actual.isIndelible);
+            assertEquals(expected.width, actual.width);
+        }
+    }
+
+    @Test
+    public void manyChipsStayCompact() throws Exception {
+        ChipsState<Long, Data> state = new ChipsState<>(500);
+        for (long i = 0; i < 500; i++) {
+            String name = "Contact number " + i;
+            state.entries.add(new ChipsState.Entry<>(i, new Data(name), name,
+                "https://cdn.example.com/avatars/" + (1000000 + i) + ".png", false, 200));
+        }
+
+        byte[] bytes = state.write(CODEC);
+        assertTrue(bytes.length < 32 * 1024);
+        assertEquals(500, ChipsState.read(bytes, CODEC).entries.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsGarbage() throws Exception {
+        ChipsState.read(new byte[] {1, 2, 3, 4}, CODEC);
+    }
+}
@@ -0,0 +1,54 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyedPoolTest {
+
+    private static final int[] THEME = {1, 2};
+    private static final int[] OTHER_THEME = {1, 3};
+
+    @Test
+    public void reusesAcrossWrappersOfTheSameActivity() throws Exception {
+        Object activity = new Object();
+        KeyedPool<String> pool = new KeyedPool<>(4);
+
+        // a dialog's wrapper releases its views, the next dialog's wrapper has a key of its own
+        pool.release(new KeyedPool.Key(activity, THEME.clone()), "a");
+        pool.release(new KeyedPool.Key(activity, THEME.clone()), "b");
+
+        KeyedPool.Key reopened = new KeyedPool.Key(activity, THEME.clone());
+        assertEquals(2, pool.count(reopened));
+        assertEquals("b", pool.acquire(reopened));
+        assertEquals("a", pool.acquire(reopened));
+        assertNull(pool.acquire(reopened));
+    }
+
+    @Test
+    public void keepsActivitiesAndThemesApart() throws Exception {
+        Object activity = new Object();
+        KeyedPool<String> pool = new KeyedPool<>(4);
+        pool.release(new KeyedPool.Key(activity, THEME), "a");
+
+        assertNull(pool.acquire(new KeyedPool.Key(new Object(), THEME)));
+        assertNull(pool.acquire(new KeyedPool.Key(activity, OTHER_THEME)));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void dropsOldestWhenFullAndByOwner() throws Exception {
+        Object first = new Object();
+        Object second = new Object();
+        KeyedPool<String> pool = new KeyedPool<>(2);
+        pool.release(new KeyedPool.Key(first, THEME), "a");
+        pool.release(new KeyedPool.Key(second, THEME), "b");
+        pool.release(new KeyedPool.Key(second, OTHER_THEME), "c");
+
+        assertEquals(2, pool.size());
+        assertNull(pool.acquire(new KeyedPool.Key(first, THEME)));
+
+        pool.removeOwner(second);
+        assertEquals(0, pool.size());
+    }
+}
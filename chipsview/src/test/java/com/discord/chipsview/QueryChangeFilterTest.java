@@ -0,0 +1,70 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryChangeFilterTest {
+
+    private final List<String> mQueries = new ArrayList<>();
+    private final QueryChangeFilter mFilter = new QueryChangeFilter(new QueryChangeFilter.Listener() {
+        @Override
+        public void onQueryChanged(CharSequence query) {
+            mQueries.add(query.toString());
+        }
+    });
+
+    @Test
+    public void reportsUserEdits() throws Exception {
+        mFilter.onTextChanged("a");
+        mFilter.onTextChanged("al");
+        assertEquals(Arrays.asList("a", "al"), mQueries);
+    }
+
+    @Test
+    public void clearingAfterAddIsNotAQuery() throws Exception {
+        mFilter.onTextChanged("ali");
+        // addChip() clears the query
+        mFilter.beginInternalChange();
+        try {
+            mFilter.onTextChanged("");
+        } finally {
+            mFilter.endInternalChange();
+        }
+        assertEquals(Arrays.asList("ali"), mQueries);
+    }
+
+    @Test
+    public void tokenizingIsNotAQuery() throws Exception {
+        mFilter.onTextChanged("alice, bo");
+        // the tokens are taken off, the unresolved ones come back later, the chip spans change in between
+        mFilter.beginInternalChange();
+        try {
+            mFilter.onTextChanged("bo");
+            mFilter.beginInternalChange();
+            try {
+                mFilter.onTextChanged("bo");
+            } finally {
+                mFilter.endInternalChange();
+            }
+            assertTrue(mFilter.isInternalChange());
+            mFilter.onTextChanged("alice, bo");
+        } finally {
+            mFilter.endInternalChange();
+        }
+        assertFalse(mFilter.isInternalChange());
+        assertEquals(Arrays.asList("alice, bo"), mQueries);
+
+        mFilter.onTextChanged("bob");
+        assertEquals(Arrays.asList("alice, bo", "bob"), mQueries);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unbalancedEndThrows() throws Exception {
+        mFilter.endInternalChange();
+    }
+}
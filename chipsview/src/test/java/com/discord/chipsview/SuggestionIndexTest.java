@@ -0,0 +1,110 @@
+package com.discord.chipsview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SuggestionIndexTest {
+
+    @Test
+    public void ranksStartThenWordThenInside() throws Exception {
+        SuggestionIndex<String, Candidate> index = newIndex("Mark Anders", "Anna", "Joanna", "Ann Lee");
+
+        assertEquals(names("Anna", "Ann Lee", "Joanna"), index.search("ann", 10));
+        assertEquals(names("Anna", "Joanna"), index.search("anna", 10));
+
+        // too short to match inside a word
+        assertEquals(names("Anna", "Ann Lee", "Mark Anders"), index.search("an", 10));
+    }
+
+    @Test
+    public void punctuationAtTheStartStillMatchesAsStart() throws Exception {
+        SuggestionIndex<String, Candidate> index = newIndex("x#ge", "#general");
+
+        assertEquals(names("#general", "x#ge"), index.search("#ge", 10));
+        assertEquals(names("#general"), index.search("gen", 10));
+    }
+
+    @Test
+    public void foldsCaseAndDiacritics() throws Exception {
+        SuggestionIndex<String, Candidate> index = newIndex("Ren\u00e9e Mu\u00f1oz");
+
+        assertEquals(names("Ren\u00e9e Mu\u00f1oz"), index.search("RENEE", 10));
+        assertEquals(names("Ren\u00e9e Mu\u00f1oz"), index.search("mun", 10));
+        assertEquals(names("Ren\u00e9e Mu\u00f1oz"), index.search("uno", 10));
+    }
+
+    @Test
+    public void limitsAndExcludes() throws Exception {
+        SuggestionIndex<String, Candidate> index = newIndex("Al", "Alan", "Alice", "Albert");
+
+        assertEquals(names("Al", "Alan"), index.search("al", 2));
+        assertEquals(names("Alan", "Alice", "Albert"), index.search("al", 10, new SuggestionIndex.KeyFilter<String>() {
+            @Override
+            public boolean exclude(String key) {
+                return key.equals("Al");
+            }
+        }));
+    }
+
+    @Test
+    public void removesAndReplaces() throws Exception {
+        SuggestionIndex<String, Candidate> index = newIndex("Bob", "Bobby");
+
+        index.remove("Bob");
+        assertEquals(names("Bobby"), index.search("bob", 10));
+
+        index.add("Bobby", new Candidate("Robert"));
+        assertEquals(Collections.emptyList(), index.search("bob", 10));
+        assertEquals(1, index.search("rob", 10).size());
+        assertEquals(1, index.size());
+    }
+
+    private static SuggestionIndex<String, Candidate> newIndex(String... names) {
+        SuggestionIndex<String, Candidate> index = new SuggestionIndex<>();
+        for (String name : names) {
+            index.add(name, new Candidate(name));
+        }
+        return index;
+    }
+
+    private static List<Candidate> names(String... names) {
+        Candidate[] candidates = new Candidate[names.length];
+        for (int i = 0; i < names.length; i++) {
+            candidates[i] = new Candidate(names[i]);
+        }
+        return Arrays.asList(candidates);
+    }
+
+    private static class Candidate implements ChipsView.DataContract {
+        private final String mName;
+
+        Candidate(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String getDisplayString() {
+            return mName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Candidate && ((Candidate) o).mName.equals(mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return mName.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+}